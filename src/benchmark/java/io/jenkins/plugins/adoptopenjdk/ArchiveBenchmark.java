@@ -0,0 +1,148 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import hudson.FilePath;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Objects;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Extracting the archive fixtures on the agent, and packing and inspecting an extracted installation.
+ */
+@JmhBenchmark
+public class ArchiveBenchmark {
+
+    static byte[] fixture(String name) throws IOException {
+        try (InputStream in = Objects.requireNonNull(ArchiveBenchmark.class.getResourceAsStream("/__files/" + name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Extraction {
+        @Param({"Linux.tar.gz", "Win.zip"})
+        public String archive;
+
+        /**
+         * {@link ParallelExtractor#THREADS}, {@code 1} extracts with {@link FilePath} as before.
+         */
+        @Param({"1", "0"})
+        public int threads;
+
+        byte[] bytes;
+        FilePath root;
+        FilePath target;
+        private int saved;
+        private int invocation;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            bytes = fixture(archive);
+            root = new FilePath(Files.createTempDirectory("extraction").toFile());
+            saved = ParallelExtractor.THREADS;
+            ParallelExtractor.THREADS = threads;
+        }
+
+        @Setup(Level.Invocation)
+        public void target() throws IOException, InterruptedException {
+            if (target != null) {
+                target.deleteRecursive();
+            }
+            target = root.child(Integer.toString(invocation++));
+            target.mkdirs();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, InterruptedException {
+            ParallelExtractor.THREADS = saved;
+            root.deleteRecursive();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Installation {
+        @Param({"Linux.tar.gz", "Win.zip"})
+        public String installed;
+
+        FilePath home;
+        AdoptOpenJDKInstaller installer;
+
+        @Setup
+        public void setup() throws IOException, InterruptedException {
+            home = new FilePath(Files.createTempDirectory("installation").toFile());
+            if (installed.endsWith(".zip")) {
+                home.unzipFrom(new ByteArrayInputStream(fixture(installed)));
+            } else {
+                home.untarFrom(new ByteArrayInputStream(fixture(installed)), FilePath.TarCompression.GZIP);
+            }
+            installer = new AdoptOpenJDKInstaller("jdk-21.0.7+6");
+        }
+
+        @TearDown
+        public void tearDown() throws IOException, InterruptedException {
+            home.deleteRecursive();
+        }
+    }
+
+    @Benchmark
+    public FilePath extract(Extraction state) throws IOException, InterruptedException {
+        if (state.archive.endsWith(".zip")) {
+            ParallelExtractor.unzip(state.target, new ByteArrayInputStream(state.bytes));
+        } else {
+            ParallelExtractor.untar(state.target, new ByteArrayInputStream(state.bytes));
+        }
+        return state.target;
+    }
+
+    /**
+     * Packing an installation into the controller cache, as the repacking cache does.
+     */
+    @Benchmark
+    public void zip(Installation state) throws IOException, InterruptedException {
+        try (OutputStream out = OutputStream.nullOutputStream()) {
+            state.home.zip(out);
+        }
+    }
+
+    @Benchmark
+    public FilePath findPullUpDirectory(Installation state) throws IOException, InterruptedException {
+        return state.installer.findPullUpDirectory(state.home, Platform.LINUX);
+    }
+}
@@ -0,0 +1,133 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFile;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKList;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKRelease;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading and querying the release catalog used by the tests.
+ * <p>
+ * {@link #readTree} is the way the catalog was bound before {@link CatalogReader}, for comparison with {@link #read}.
+ * Both start from the JSON object core parses from the data file, which {@link #parse} measures on its own.
+ */
+@JmhBenchmark
+public class CatalogBenchmark {
+
+    static String catalog() throws IOException {
+        try (InputStream in = Objects.requireNonNull(
+                CatalogBenchmark.class.getResourceAsStream("/" + AdoptOpenJDKInstaller.class.getName()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A controller with the catalog as data file of the downloadable.
+     */
+    public static class ControllerState extends JmhBenchmarkState {
+        AdoptOpenJDKList downloadable;
+
+        @Override
+        public void setup() throws Exception {
+            downloadable = Objects.requireNonNull(AdoptOpenJDKList.all().get(AdoptOpenJDKList.class));
+            downloadable.getDataFile().write(catalog());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        String text;
+        JSONObject json;
+        AdoptOpenJDKFamilyList list;
+        AdoptOpenJDKRelease release;
+
+        @Setup
+        public void setup() throws IOException {
+            text = catalog();
+            json = JSONObject.fromObject(text);
+            list = CatalogReader.read(json);
+            release = list.getRelease("jdk-21.0.7+6");
+        }
+    }
+
+    /**
+     * The catalog as builds get it, parsed only when the data file changed.
+     */
+    @Benchmark
+    public AdoptOpenJDKFamilyList toList(ControllerState state) throws IOException {
+        return state.downloadable.toList();
+    }
+
+    @Benchmark
+    public JSONObject parse(CatalogState state) {
+        return JSONObject.fromObject(state.text);
+    }
+
+    @Benchmark
+    public AdoptOpenJDKFamilyList read(CatalogState state) throws IOException {
+        return CatalogReader.read(state.json);
+    }
+
+    /**
+     * The JSON object of the whole catalog bound with {@code JSONObject.toBean}.
+     */
+    @Benchmark
+    public Object readTree(CatalogState state) {
+        return JSONObject.toBean(state.json, AdoptOpenJDKFamilyList.class);
+    }
+
+    @Benchmark
+    public AdoptOpenJDKRelease getRelease(CatalogState state) {
+        return state.list.getRelease("jdk-21.0.7+6");
+    }
+
+    @Benchmark
+    public AdoptOpenJDKFile getBinary(CatalogState state) {
+        return state.release.getBinary(Platform.LINUX, CPU.AMD64);
+    }
+
+    @Benchmark
+    public List<AdoptOpenJDKRelease> find(CatalogState state) {
+        return state.list.find("21", 20);
+    }
+}
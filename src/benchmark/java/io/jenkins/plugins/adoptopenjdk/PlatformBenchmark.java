@@ -0,0 +1,76 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.DetectionFailedException;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.util.Objects;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Detection of the agent configuration, which runs on the agent before each installation that is not cached yet.
+ */
+@JmhBenchmark
+public class PlatformBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class OsRelease {
+        @Param({"alpine-os-release", "ubuntu-os-release"})
+        public String osRelease;
+
+        private String saved;
+
+        @Setup
+        public void setup() {
+            saved = Platform.osReleaseLocation;
+            Platform.osReleaseLocation = Objects.requireNonNull(PlatformBenchmark.class.getResource(osRelease))
+                    .getFile();
+        }
+
+        @TearDown
+        public void tearDown() {
+            Platform.osReleaseLocation = saved;
+        }
+    }
+
+    @Benchmark
+    public boolean isAlpineLinux(OsRelease state) {
+        return Platform.isAlpineLinux();
+    }
+
+    @Benchmark
+    public CPU cpuCurrent() throws DetectionFailedException {
+        return CPU.current();
+    }
+}
@@ -26,40 +26,67 @@ package io.jenkins.plugins.adoptopenjdk;
  * #L%
  */
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AutoCompletionCandidates;
+import hudson.model.Computer;
 import hudson.model.DownloadService;
 import hudson.model.JDK;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
 import hudson.remoting.VirtualChannel;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolInstaller;
 import hudson.tools.ToolInstallerDescriptor;
 import hudson.tools.ZipExtractionInstaller;
+import hudson.util.FormValidation;
+import io.jenkins.plugins.adoptopenjdk.InstallMetrics.Phase;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.Jenkins;
 import jenkins.security.MasterToSlaveCallable;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.input.CountingInputStream;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
 
 /**
  * Install OpenJDK from <a href="https://adoptium.net">Adoptium</a>
@@ -67,21 +94,66 @@ import org.kohsuke.stapler.DataBoundConstructor;
  */
 public class AdoptOpenJDKInstaller extends ToolInstaller {
 
-    private static boolean DISABLE_CACHE = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".cache.disable");
+    private static final Logger LOGGER = Logger.getLogger(AdoptOpenJDKInstaller.class.getName());
+
+    static boolean DISABLE_CACHE = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".cache.disable");
+
+    /**
+     * Cache the extracted installation re-packed as zip instead of the upstream archive.
+     * The agents then download from upstream themselves, the controller never does.
+     */
+    static boolean REPACK_CACHE = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".cache.repack");
+
+    /**
+     * Cache archives that are currently being filled, mapped to a future that completes once the fill has ended.
+     */
+    private static final ConcurrentMap<File, CompletableFuture<Void>> CACHE_FILLS = new ConcurrentHashMap<>();
 
     /**
      * Eclipse Temurin release id
      */
     public final String id;
 
+    /**
+     * Modules of the runtime image to install instead of the full release, {@code null} for the full release
+     */
+    @CheckForNull
+    private String modules;
+
+    /**
+     * {@code jlink} compression of the runtime image, {@code null} for the default of {@code jlink}
+     */
+    @CheckForNull
+    private String compression;
+
     @DataBoundConstructor
     public AdoptOpenJDKInstaller(String id) {
         super(null);
         this.id = id;
     }
 
+    @CheckForNull
+    public String getModules() {
+        return modules;
+    }
+
+    @DataBoundSetter
+    public void setModules(@CheckForNull String modules) {
+        this.modules = Util.fixEmptyAndTrim(modules);
+    }
+
+    @CheckForNull
+    public String getCompression() {
+        return compression;
+    }
+
+    @DataBoundSetter
+    public void setCompression(@CheckForNull String compression) {
+        this.compression = Util.fixEmptyAndTrim(compression);
+    }
+
     @NonNull
-    private static AdoptOpenJDKFamilyList getAdoptOpenJDKFamilyList() throws IOException {
+    static AdoptOpenJDKFamilyList getAdoptOpenJDKFamilyList() throws IOException {
         AdoptOpenJDKList list = AdoptOpenJDKList.all().get(AdoptOpenJDKList.class);
         if (list == null) {
             throw new IOException(Messages.AdoptOpenJDKInstaller_getAdoptOpenJDKFamilyList_NoDownloadable());
@@ -92,95 +164,748 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
     @Override
     public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
             throws IOException, InterruptedException {
+        try (InstallMetrics.Recording recording = InstallMetrics.get().start(id, log)) {
+            return install(tool, node, log, recording);
+        }
+    }
+
+    private FilePath install(ToolInstallation tool, Node node, TaskListener log, InstallMetrics.Recording recording)
+            throws IOException, InterruptedException {
         FilePath expected = preferredLocation(tool, node);
 
-        try {
-            // already installed?
-            FilePath marker = expected.child(".installedByJenkins");
-            if (marker.exists() && marker.readToString().equals(id)) {
+        // already installed?
+        InstallState probed;
+        try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.MARKER_CHECK)) {
+            probed = InstallState.probe(expected, node, installationId());
+        }
+        recording.on(probed.detected(), node.getDisplayName());
+        if (probed.installed() && !probed.cdsPending() && verify(expected).isEmpty()) {
+            return expected;
+        }
+        // concurrent builds on the same agent install one after the other, later ones find the installation
+        try (InstallLock lock = InstallLock.acquire(expected, log)) {
+            InstallState state;
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.MARKER_CHECK)) {
+                state = InstallState.probe(expected, node, installationId());
+            }
+            List<DeltaInstall.Entry> damaged = state.installed() ? verify(expected) : List.of();
+            if (state.installed() && damaged.isEmpty()) {
+                if (state.cdsPending()) {
+                    ClassDataSharing.generate(
+                            expected, state.configuration(node).platform(), log);
+                }
                 return expected;
             }
-            expected.deleteRecursive();
-            expected.mkdirs();
 
-            AdoptOpenJDKFamilyList jdkFamilyList = getAdoptOpenJDKFamilyList();
-            if (jdkFamilyList.isEmpty()) {
-                throw new IOException(Messages.AdoptOpenJDKInstaller_performInstallation_emptyJdkFamilyList());
+            AdoptOpenJDKRelease release;
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.CATALOG)) {
+                AdoptOpenJDKFamilyList jdkFamilyList = getAdoptOpenJDKFamilyList();
+                if (jdkFamilyList.isEmpty()) {
+                    throw new IOException(Messages.AdoptOpenJDKInstaller_performInstallation_emptyJdkFamilyList());
+                }
+                release = jdkFamilyList.getRelease(id);
             }
-            AdoptOpenJDKRelease release = jdkFamilyList.getRelease(id);
             if (release == null) {
                 throw new IOException(Messages.AdoptOpenJDKInstaller_performInstallation_releaseNotFound(id));
             }
 
-            Configuration configuration = Configuration.of(node);
+            Configuration configuration;
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.DETECTION)) {
+                configuration = state.configuration(node);
+            }
+            recording.on(configuration, node.getDisplayName());
             Platform p = configuration.platform();
             CPU c = configuration.cpu();
 
-            AdoptOpenJDKFile binary = release.getBinary(p, c);
+            AdoptOpenJDKFile binary;
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.CATALOG)) {
+                binary = release.getBinary(p, c);
+            }
             if (binary == null) {
                 throw new IOException(
                         Messages.AdoptOpenJDKInstaller_performInstallation_binaryNotFound(id, p.name(), c.name()));
             }
-            File cache = getLocalCacheFile(p, c);
-            if (!DISABLE_CACHE && cache.exists()) {
-                try (InputStream in = cache.toURI().toURL().openStream()) {
-                    CountingInputStream cis = new CountingInputStream(in);
+            FilePath shared = p != Platform.WINDOWS ? SharedStore.locate(node, p, c, installationId()) : null;
+            // the files of a tool home linked into the store are shared with other agents
+            boolean linked = shared != null && shared.getRemote().equals(expected.readLink());
+            if (!damaged.isEmpty() && !linked && repair(expected, damaged, binary, p, c, node, log)) {
+                ClassDataSharing.generate(expected, p, log);
+                return expected;
+            }
+            if (DISABLE_CACHE || REPACK_CACHE) {
+                expected.deleteRecursive();
+                expected.mkdirs();
+            }
+            if (DISABLE_CACHE) {
+                installFromUpstream(tool, node, log, binary, p, expected);
+                ClassDataSharing.generate(expected, p, log);
+                return expected;
+            }
+            if (REPACK_CACHE) {
+                File cache = getLocalCacheFile(p, c);
+                try (ArchiveCache.Lease lease = fillCache(cache, p, c, log, () -> {
+                    installFromUpstream(tool, node, log, binary, p, expected);
+                    return updateCache(expected, cache);
+                })) {
+                    if (!lease.filled()) {
+                        installFromCache(lease, expected, node, log);
+                    }
+                }
+                ClassDataSharing.generate(expected, p, log);
+                return expected;
+            }
+            // builds keep using the active release until the new one is completely extracted next to it
+            boolean sideBySide = VersionedInstall.ENABLED && p != Platform.WINDOWS;
+            if (shared != null) {
+                // locked across all agents of the host, which extract or repair the release only once
+                try (InstallLock storeLock = InstallLock.acquire(shared, log)) {
+                    boolean installed = InstallState.probe(shared, node, installationId()).installed();
+                    if (installed && linked) {
+                        List<DeltaInstall.Entry> broken = verify(shared);
+                        installed = broken.isEmpty() || repair(shared, broken, binary, p, c, node, log);
+                    }
+                    if (!installed) {
+                        shared.deleteRecursive();
+                        shared.mkdirs();
+                        installRelease(shared, false, binary, p, c, node, log);
+                    }
+                    ClassDataSharing.generate(shared, p, log);
+                }
+                if (VersionedInstall.link(expected, shared, log)) {
+                    return expected;
+                }
+            }
+            FilePath target = sideBySide ? VersionedInstall.newVersion(expected, id) : expected;
+            target.deleteRecursive();
+            target.mkdirs();
+            installRelease(target, sideBySide && DeltaInstall.ENABLED, binary, p, c, node, log);
+            ClassDataSharing.generate(target, p, log);
+            if (sideBySide) {
+                VersionedInstall.activate(expected, target, log);
+            }
+        } catch (DetectionFailedException e) {
+            log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_JdkSkipped(e.getMessage()));
+        }
+
+        return expected;
+    }
+
+    /**
+     * @return The files of an installation that are missing or differ from its manifest.
+     */
+    private static List<DeltaInstall.Entry> verify(FilePath expected) throws IOException, InterruptedException {
+        try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.VERIFY)) {
+            return InstallVerifier.verify(expected);
+        }
+    }
+
+    /**
+     * Restores the damaged files of an installation from the cached archive it was installed from.
+     *
+     * @return Whether the installation was repaired, otherwise it has to be installed again.
+     */
+    private boolean repair(
+            FilePath expected,
+            List<DeltaInstall.Entry> damaged,
+            AdoptOpenJDKFile binary,
+            Platform p,
+            CPU c,
+            Node node,
+            TaskListener log)
+            throws IOException, InterruptedException {
+        log.getLogger().println(Messages.InstallVerifier_verify_damaged(damaged.size(), expected));
+        if (DISABLE_CACHE || REPACK_CACHE) {
+            return false;
+        }
+        String imageModules = imageModules();
+        try (ArchiveCache.Lease lease = imageModules == null
+                ? fillArchive(binary, p, c, log)
+                : ArchiveCache.get().lease(getImageCacheFile(p, c, JlinkImage.key(imageModules, compression)))) {
+            if (lease == null) {
+                return false;
+            }
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.EXTRACTION)) {
+                return InstallVerifier.repair(lease.file(), expected, damaged, log);
+            }
+        } catch (IOException e) {
+            log.getLogger().println(Messages.InstallVerifier_repair_failed(expected, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Installs the release, or the runtime image with the configured modules, from the controller cache.
+     *
+     * @param delta Whether files of other releases installed next to {@code target} may be reused.
+     */
+    private void installRelease(
+            FilePath target, boolean delta, AdoptOpenJDKFile binary, Platform p, CPU c, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        String imageModules = imageModules();
+        if (imageModules == null) {
+            if (JlinkImage.normalize(modules) != null) {
+                log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_imageNotSupported(id));
+            }
+            installArchive(binary, target, delta, p, c, node, log);
+            return;
+        }
+        File image = getImageCacheFile(p, c, JlinkImage.key(imageModules, compression));
+        try (ArchiveCache.Lease lease = fillCache(image, p, c, log, () -> {
+            FilePath parent = target.getParent();
+            if (parent == null) {
+                throw new NullPointerException("Parent directory of " + target + " is null");
+            }
+            // the full release is only needed on this agent until the image is linked
+            FilePath full = parent.child(target.getName() + ".full");
+            full.deleteRecursive();
+            full.mkdirs();
+            try {
+                installArchive(binary, full, false, p, c, node, log);
+                log.getLogger()
+                        .println(Messages.AdoptOpenJDKInstaller_performInstallation_linkImage(
+                                imageModules, id, node.getDisplayName()));
+                JlinkImage.link(full, target, imageModules, compression);
+            } finally {
+                full.deleteRecursive();
+            }
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.CACHE_PACK)) {
+                return JlinkImage.pack(target, image);
+            }
+        })) {
+            if (lease.filled()) {
+                // the image was linked here rather than extracted, its manifest comes from the packed archive
+                if (InstallVerifier.MODE != InstallVerifier.Mode.OFF) {
                     try {
-                        log.getLogger()
-                                .println(Messages.AdoptOpenJDKInstaller_performInstallation_fromCache(
-                                        cache, expected, node.getDisplayName()));
-                        // the zip contains already the directory so we unzip to parent directory
-                        FilePath parent = expected.getParent();
-                        if (parent != null) {
-                            parent.unzipFrom(cis);
-                        } else {
-                            throw new NullPointerException("Parent directory of " + expected + " is null");
-                        }
+                        DeltaInstall.writeManifest(target, target, DeltaInstall.manifest(image));
                     } catch (IOException e) {
-                        throw new IOException(
-                                Messages.AdoptOpenJDKInstaller_performInstallation_failedToUnpack(
-                                        cache.toURI().toURL(), cis.getByteCount()),
-                                e);
+                        log.getLogger().println(Messages.InstallVerifier_manifest_failed(target, e.getMessage()));
                     }
                 }
+                target.child(".installedByJenkins").write(marker(lease.sha256()), null);
             } else {
-                String url = binary.binary_link;
-                ZipExtractionInstaller zipExtractionInstaller = new ZipExtractionInstaller(null, url, null);
-                FilePath installation = zipExtractionInstaller.performInstallation(tool, node, log);
-                installation.child(".timestamp").delete(); // we don't use the timestamp
-                FilePath base = findPullUpDirectory(installation, p);
-                if (base != null && base != expected) {
-                    base.moveAllChildrenTo(expected);
+                installFromArchive(lease, List.of(), target, false, p, node, log);
+            }
+        }
+    }
+
+    /**
+     * Fills the controller cache for an agent configuration ahead of time, without installing anything.
+     *
+     * @return {@code true} if the archive had to be downloaded
+     */
+    boolean prefetch(AdoptOpenJDKFamilyList catalog, Configuration configuration, TaskListener log)
+            throws IOException, InterruptedException {
+        AdoptOpenJDKRelease release = catalog.getRelease(id);
+        if (release == null) {
+            return false;
+        }
+        AdoptOpenJDKFile binary = release.getBinary(configuration.platform(), configuration.cpu());
+        if (binary == null
+                || getArchiveCacheFile(binary, configuration.platform(), configuration.cpu())
+                        .exists()) {
+            return false;
+        }
+        try (ArchiveCache.Lease lease = fillArchive(binary, configuration.platform(), configuration.cpu(), log)) {
+            return lease.filled();
+        }
+    }
+
+    /**
+     * Installs the upstream archive of the binary from the controller cache, which the controller fills.
+     * If the controller fails to download the archive, the agent downloads it instead.
+     *
+     * @param delta Whether files of other releases installed next to {@code target} may be reused.
+     */
+    private void installArchive(
+            AdoptOpenJDKFile binary, FilePath target, boolean delta, Platform p, CPU c, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        ArchiveCache.Lease filled;
+        try {
+            filled = fillArchive(binary, p, c, log);
+        } catch (IOException e) {
+            FilePath root = node instanceof Jenkins ? null : node.getRootPath();
+            if (root == null) {
+                throw e;
+            }
+            File archive = getArchiveCacheFile(binary, p, c);
+            log.getLogger()
+                    .println(Messages.AdoptOpenJDKInstaller_performInstallation_controllerDownloadFailed(
+                            archive.getName(), node.getDisplayName(), e.getMessage()));
+            if (installFromAgent(binary, archive, root, target, p, node, log)) {
+                return;
+            }
+            // another build copies the archive of its agent into the cache
+            filled = fillArchive(binary, p, c, log);
+        }
+        try (ArchiveCache.Lease lease = filled) {
+            installFromArchive(lease, DownloadMirrors.sources(binary.binary_link), target, delta, p, node, log);
+        }
+    }
+
+    /**
+     * Makes sure that the upstream archive of the binary is in the controller cache and leases it to the caller.
+     * The controller downloads a missing archive from the mirrors and upstream, and verifies it against the checksum
+     * published upstream.
+     */
+    private ArchiveCache.Lease fillArchive(AdoptOpenJDKFile binary, Platform p, CPU c, TaskListener log)
+            throws IOException, InterruptedException {
+        File archive = getArchiveCacheFile(binary, p, c);
+        return fillCache(archive, p, c, log, () -> {
+            String sha256;
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.DOWNLOAD)) {
+                String published = ArchiveChecksum.fetch(URI.create(binary.binary_link), log);
+                sha256 = DownloadMirrors.hedged(binary.binary_link, log, (source, attempt) -> {
+                    log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_download(source));
+                    return ArchiveDownloader.download(source, archive.toPath(), published, log, attempt);
+                });
+            }
+            InstallMetrics.downloaded(archive.length());
+            return sha256;
+        });
+    }
+
+    /**
+     * Downloads the archive on the agent, for controllers that cannot reach upstream, and installs it from the copy
+     * of the agent. The copy is sent to the controller cache in the background, and builds that need the archive
+     * meanwhile wait for it instead of downloading it again.
+     *
+     * @param archive The file of the archive in the controller cache.
+     * @param root    The root directory of the agent.
+     * @return Whether the archive was installed, {@code false} if another build is filling the cache with it.
+     */
+    private boolean installFromAgent(
+            AdoptOpenJDKFile binary,
+            File archive,
+            FilePath root,
+            FilePath expected,
+            Platform p,
+            Node node,
+            TaskListener log)
+            throws IOException, InterruptedException {
+        CompletableFuture<Void> fill = new CompletableFuture<>();
+        if (CACHE_FILLS.putIfAbsent(archive, fill) != null) {
+            return false;
+        }
+        ArchiveDownloader.AgentArchive downloaded = null;
+        boolean sending = false;
+        try {
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.DOWNLOAD)) {
+                downloaded = ArchiveDownloader.downloadOnAgent(
+                        URI.create(binary.binary_link),
+                        DownloadMirrors.sources(binary.binary_link),
+                        root.child(ArchiveCache.ROOT),
+                        archive.getName(),
+                        log);
+            }
+            InstallMetrics.downloaded(downloaded.size());
+            log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_path(expected));
+            boolean zip = isZip(archive.getName());
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.EXTRACTION)) {
+                ParallelExtractor.extract(expected, downloaded.file(), zip);
+            }
+            List<DeltaInstall.Entry> manifest = null;
+            if (InstallVerifier.MODE != InstallVerifier.Mode.OFF) {
+                try {
+                    manifest = DeltaInstall.manifest(downloaded.file(), zip);
+                } catch (IOException e) {
+                    log.getLogger().println(Messages.InstallVerifier_manifest_failed(expected, e.getMessage()));
                 }
-                marker.write(id, null);
-                if (!DISABLE_CACHE) {
-                    // update the local cache on master
-                    // download to a temporary file and rename it in to handle concurrency and failure correctly,
-                    Path tmp = new File(cache.getPath() + ".tmp").toPath();
-                    try {
-                        Path tmpParent = tmp.getParent();
-                        if (tmpParent != null) {
-                            Files.createDirectories(tmpParent);
-                        }
-                        try (OutputStream out = Files.newOutputStream(tmp)) {
-                            expected.zip(out);
-                        }
-                        Files.move(tmp, cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    } finally {
-                        Files.deleteIfExists(tmp);
+            }
+            complete(expected, p, manifest, downloaded.sha256());
+            ArchiveDownloader.AgentArchive copy = downloaded;
+            Computer.threadPoolForRemoting.execute(() -> sendToCache(copy, archive, node, fill));
+            sending = true;
+            return true;
+        } finally {
+            if (!sending) {
+                if (downloaded != null) {
+                    downloaded.file().delete();
+                }
+                CACHE_FILLS.remove(archive, fill);
+                fill.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Copies an archive downloaded on an agent into the controller cache. The agent keeps the archive for its peers
+     * if {@link PeerDistribution} is enabled, and deletes it otherwise.
+     *
+     * @param fill Completed once the archive is in the cache or the copy failed.
+     */
+    private static void sendToCache(
+            ArchiveDownloader.AgentArchive downloaded, File archive, Node node, CompletableFuture<Void> fill) {
+        FilePath copy = downloaded.file();
+        try {
+            ArchiveDownloader.copyToController(downloaded, archive.toPath());
+            ArchiveCache.get().add(archive, downloaded.sha256()).close();
+            FilePath keep = PeerDistribution.keep(archive, node);
+            FilePath dir = keep != null ? keep.getParent() : null;
+            if (dir != null) {
+                dir.mkdirs();
+                copy.renameTo(keep);
+                copy = null;
+                PeerDistribution.offer(archive, node, keep);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to copy " + downloaded.file() + " into the controller cache", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (copy != null) {
+                try {
+                    copy.delete();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.FINE, "Failed to delete " + copy, e);
+                }
+            }
+            CACHE_FILLS.remove(archive, fill);
+            fill.complete(null);
+        }
+    }
+
+    /**
+     * Makes sure that the given file exists in the controller cache and leases it to the caller.
+     * Only one caller fills a missing file, concurrent callers for the same file wait until that fill has ended.
+     */
+    private ArchiveCache.Lease fillCache(File cache, Platform p, CPU c, TaskListener log, CacheFill fill)
+            throws IOException, InterruptedException {
+        ArchiveCache archives = ArchiveCache.get();
+        boolean waited = false;
+        while (true) {
+            ArchiveCache.Lease lease = archives.lease(cache);
+            if (lease != null) {
+                if (!waited) {
+                    InstallMetrics.cacheHit();
+                }
+                return lease;
+            }
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = CACHE_FILLS.putIfAbsent(cache, mine);
+            if (running == null) {
+                try {
+                    if (archives.contains(cache)) {
+                        continue; // filled between the check and the registration
                     }
+                    InstallMetrics.cacheMiss();
+                    String sha256 = fill.run();
+                    return archives.add(cache, sha256);
+                } finally {
+                    CACHE_FILLS.remove(cache, mine);
+                    mine.complete(null);
                 }
             }
-        } catch (DetectionFailedException e) {
-            log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_JdkSkipped(e.getMessage()));
+            log.getLogger()
+                    .println(Messages.AdoptOpenJDKInstaller_performInstallation_waitingForDownload(
+                            id, p.name(), c.name()));
+            if (!waited) {
+                waited = true;
+                InstallMetrics.coalescedWait();
+            }
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.WAIT)) {
+                running.get();
+            } catch (ExecutionException e) {
+                // never completed exceptionally, the leader removes itself and the cache is checked again
+            }
         }
+    }
 
-        return expected;
+    @FunctionalInterface
+    private interface CacheFill {
+        /**
+         * @return The checksum of the filled file, {@code null} if it is not known.
+         */
+        @CheckForNull
+        String run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Extracts an upstream archive from the controller cache into the tool home on the agent.
+     * The agent downloads the archive itself if a {@link TransferStrategy} allows it, otherwise the checksum of the
+     * archive is computed while it is streamed to the agent.
+     *
+     * @param upstream The locations the agent may download the archive from instead of the controller cache.
+     * @param delta    Whether files of other releases installed next to {@code expected} may be reused.
+     */
+    private void installFromArchive(
+            ArchiveCache.Lease lease,
+            List<URI> upstream,
+            FilePath expected,
+            boolean delta,
+            Platform p,
+            Node node,
+            TaskListener log)
+            throws IOException, InterruptedException {
+        File archive = lease.file();
+        if (lease.filled()) {
+            log.getLogger().println(Messages.AdoptOpenJDKInstaller_performInstallation_path(expected));
+        } else {
+            log.getLogger()
+                    .println(Messages.AdoptOpenJDKInstaller_performInstallation_fromCache(
+                            archive, expected, node.getDisplayName()));
+        }
+        List<DeltaInstall.Entry> manifest = null;
+        Map<String, String> unchanged = Map.of();
+        if (delta && !isZip(archive.getName())) {
+            try {
+                manifest = DeltaInstall.manifest(archive);
+                unchanged = DeltaInstall.inventory(expected);
+            } catch (IOException e) {
+                log.getLogger().println(Messages.DeltaInstall_manifest_failed(archive.getName(), e.getMessage()));
+                manifest = null;
+            }
+        }
+        boolean reuse = manifest != null && !unchanged.isEmpty();
+        FilePath keep = reuse ? null : PeerDistribution.keep(archive, node);
+        String kept = null;
+        String sha256 = null;
+        if (!reuse) {
+            try (InstallThrottle.Permit permit = InstallThrottle.get().acquire(log);
+                    InstallMetrics.Timer timer = InstallMetrics.time(Phase.EXTRACTION)) {
+                sha256 = TransferStrategy.download(lease, upstream, expected, keep, node, log);
+            }
+            if (sha256 != null) {
+                InstallMetrics.transferred(archive.length());
+                kept = sha256;
+            }
+        }
+        if (sha256 == null) {
+            MessageDigest digest = ArchiveChecksum.newDigest();
+            long read;
+            IOException failure = null;
+            try (InstallThrottle.Permit permit = InstallThrottle.get().acquire(log);
+                    InputStream in = new DigestInputStream(Files.newInputStream(archive.toPath()), digest)) {
+                CountingInputStream cis = new CountingInputStream(in);
+                try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.EXTRACTION)) {
+                    if (reuse) {
+                        DeltaInstall.extract(cis, manifest, unchanged, expected, log);
+                    } else if (isZip(archive.getName())) {
+                        kept = ParallelExtractor.unzip(
+                                expected, InstallThrottle.get().throttle(cis), keep);
+                    } else {
+                        kept = ParallelExtractor.untar(
+                                expected, InstallThrottle.get().throttle(cis), keep);
+                    }
+                } catch (IOException e) {
+                    failure = new IOException(
+                            Messages.AdoptOpenJDKInstaller_performInstallation_failedToUnpack(
+                                    archive.toURI().toURL(), cis.getByteCount()),
+                            e);
+                }
+                read = cis.getByteCount();
+            }
+            InstallMetrics.transferred(read);
+            sha256 = verify(lease, digest, read, expected, failure);
+        }
+        if (keep != null && sha256.equals(kept)) {
+            PeerDistribution.offer(archive, node, keep);
+        } else if (keep != null && kept != null) {
+            keep.delete();
+        }
+        if (manifest == null && InstallVerifier.MODE != InstallVerifier.Mode.OFF) {
+            try {
+                manifest = DeltaInstall.manifest(archive);
+            } catch (IOException e) {
+                log.getLogger().println(Messages.InstallVerifier_manifest_failed(expected, e.getMessage()));
+            }
+        }
+        complete(expected, p, manifest, sha256);
+    }
+
+    /**
+     * Pulls up the extracted release, writes its manifest and marks it as installed.
+     *
+     * @param manifest The manifest of the archive, {@code null} to not write one.
+     */
+    private void complete(FilePath expected, Platform p, @CheckForNull List<DeltaInstall.Entry> manifest, String sha256)
+            throws IOException, InterruptedException {
+        FilePath base;
+        try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.PULL_UP)) {
+            base = findPullUpDirectory(expected, p);
+            if (base != null && base != expected) {
+                base.moveAllChildrenTo(expected);
+            }
+        }
+        if (manifest != null) {
+            DeltaInstall.writeManifest(expected, base, manifest);
+        }
+        expected.child(".installedByJenkins").write(marker(sha256), null);
+    }
+
+    /**
+     * Compares the checksum computed while streaming an archive with the one recorded in the cache index.
+     * A corrupted archive is removed from the cache together with the installation made from it, so that the next
+     * attempt fills the cache again instead of installing the same archive over and over. An archive without a
+     * recorded checksum that cannot be extracted is removed as well.
+     *
+     * @param read    The number of bytes that went through the digest.
+     * @param failure Why the extraction failed, {@code null} if it succeeded.
+     * @return The verified checksum.
+     */
+    private static String verify(
+            ArchiveCache.Lease lease,
+            MessageDigest digest,
+            long read,
+            FilePath expected,
+            @CheckForNull IOException failure)
+            throws IOException, InterruptedException {
+        File archive = lease.file();
+        ArchiveChecksum.digestRemaining(digest, archive.toPath(), read);
+        String actual = ArchiveChecksum.toHex(digest);
+        String known = lease.sha256();
+        if (known != null && !known.equals(actual)) {
+            lease.invalidate();
+            expected.deleteRecursive();
+            throw new IOException(
+                    Messages.AdoptOpenJDKInstaller_performInstallation_checksumMismatch(archive, known, actual),
+                    failure);
+        }
+        if (failure != null) {
+            if (known == null) {
+                lease.invalidate();
+            }
+            throw failure;
+        }
+        if (known == null) {
+            lease.verified(actual);
+        }
+        return actual;
+    }
+
+    /**
+     * The marker file starts with the id, which is all that older releases wrote, followed by attributes.
+     */
+    private String marker(String sha256) {
+        return installationId() + "\nsha256=" + sha256 + "\n";
+    }
+
+    /**
+     * The first line of the marker file, which changes whenever a different installation is configured.
+     */
+    private String installationId() {
+        String imageModules = imageModules();
+        return imageModules == null ? id : id + " " + JlinkImage.key(imageModules, compression);
+    }
+
+    /**
+     * The modules of the runtime image to install, {@code null} to install the full release.
+     * Images are linked from the controller cache, and Java 8 has no {@code jlink}.
+     */
+    @CheckForNull
+    private String imageModules() {
+        return DISABLE_CACHE || REPACK_CACHE || id.startsWith("jdk8") ? null : JlinkImage.normalize(modules);
+    }
+
+    static boolean isZip(String fileName) {
+        return fileName.toLowerCase(Locale.ENGLISH).endsWith(".zip");
+    }
+
+    private void installFromCache(ArchiveCache.Lease lease, FilePath expected, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        File cache = lease.file();
+        MessageDigest digest = ArchiveChecksum.newDigest();
+        long read;
+        IOException failure = null;
+        try (InstallThrottle.Permit permit = InstallThrottle.get().acquire(log);
+                InputStream in = new DigestInputStream(
+                        InstallThrottle.get().throttle(cache.toURI().toURL().openStream()), digest)) {
+            CountingInputStream cis = new CountingInputStream(in);
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.CACHE_UNPACK)) {
+                log.getLogger()
+                        .println(Messages.AdoptOpenJDKInstaller_performInstallation_fromCache(
+                                cache, expected, node.getDisplayName()));
+                // the zip contains already the directory so we unzip to parent directory
+                FilePath parent = expected.getParent();
+                if (parent != null) {
+                    ParallelExtractor.unzip(parent, cis);
+                } else {
+                    throw new NullPointerException("Parent directory of " + expected + " is null");
+                }
+            } catch (IOException e) {
+                failure = new IOException(
+                        Messages.AdoptOpenJDKInstaller_performInstallation_failedToUnpack(
+                                cache.toURI().toURL(), cis.getByteCount()),
+                        e);
+            }
+            read = cis.getByteCount();
+        }
+        InstallMetrics.transferred(read);
+        verify(lease, digest, read, expected, failure);
+    }
+
+    private void installFromUpstream(
+            ToolInstallation tool, Node node, TaskListener log, AdoptOpenJDKFile binary, Platform p, FilePath expected)
+            throws IOException, InterruptedException {
+        FilePath installation;
+        try (InstallThrottle.Permit permit = InstallThrottle.get().acquire(log);
+                InstallMetrics.Timer timer = InstallMetrics.time(Phase.DOWNLOAD)) {
+            installation = DownloadMirrors.download(
+                    binary.binary_link, log, source -> new ZipExtractionInstaller(null, source.toString(), null)
+                            .performInstallation(tool, node, log));
+        }
+        installation.child(".timestamp").delete(); // we don't use the timestamp
+        try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.PULL_UP)) {
+            FilePath base = findPullUpDirectory(installation, p);
+            if (base != null && base != expected) {
+                base.moveAllChildrenTo(expected);
+            }
+        }
+        expected.child(".installedByJenkins").write(id, null);
+    }
+
+    /**
+     * Packs the installation into the local cache on the controller.
+     * The archive is written to a temporary file that is renamed into place, so that readers never see a partial
+     * archive and a failed update leaves no trace.
+     *
+     * @return The checksum of the written archive.
+     */
+    private static String updateCache(FilePath expected, File cache) throws IOException, InterruptedException {
+        Path cacheDir = cache.toPath().getParent();
+        if (cacheDir == null) {
+            throw new NullPointerException("Parent directory of " + cache + " is null");
+        }
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, cache.getName(), ".tmp");
+        try {
+            MessageDigest digest = ArchiveChecksum.newDigest();
+            try (InstallMetrics.Timer timer = InstallMetrics.time(Phase.CACHE_PACK);
+                    OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                expected.zip(out);
+            }
+            Files.move(tmp, cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return ArchiveChecksum.toHex(digest);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     private File getLocalCacheFile(Platform platform, CPU cpu) {
         // we force .zip file
-        return new File(Jenkins.get().getRootDir(), "caches/adoptopenjdk/" + platform + "/" + cpu + "/" + id + ".zip");
+        return new File(Jenkins.get().getRootDir(), ArchiveCache.ROOT + "/" + platform + "/" + cpu + "/" + id + ".zip");
+    }
+
+    /**
+     * Runtime images are cached next to the upstream archive of their release.
+     */
+    private File getImageCacheFile(Platform platform, CPU cpu, String key) {
+        return new File(
+                Jenkins.get().getRootDir(),
+                ArchiveCache.ROOT + "/" + platform + "/" + cpu + "/" + id + "/" + JlinkImage.fileName(key));
+    }
+
+    /**
+     * The upstream archive is cached byte-for-byte under its original file name.
+     */
+    private File getArchiveCacheFile(AdoptOpenJDKFile binary, Platform platform, CPU cpu) throws IOException {
+        String path = URI.create(binary.binary_link).getPath();
+        String name = path == null ? "" : path.substring(path.lastIndexOf('/') + 1);
+        if (name.isEmpty()) {
+            throw new IOException(
+                    Messages.AdoptOpenJDKInstaller_performInstallation_unknownArchive(binary.binary_link));
+        }
+        return new File(
+                Jenkins.get().getRootDir(), ArchiveCache.ROOT + "/" + platform + "/" + cpu + "/" + id + "/" + name);
     }
 
     /**
@@ -221,14 +946,33 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         return children.get(0);
     }
 
-    private record Configuration(Platform platform, CPU cpu) implements Serializable {
+    record Configuration(Platform platform, CPU cpu) implements Serializable {
 
         static Configuration of(Node node) throws IOException, InterruptedException, DetectionFailedException {
             VirtualChannel channel = node.getChannel();
             if (channel == null) {
                 throw new IOException(Messages.AdoptOpenJDKInstaller_Platform_nullChannel(node.getDisplayName()));
             }
-            return channel.call(new Configuration.GetCurrent());
+            Configuration configuration = cached(channel);
+            if (configuration == null) {
+                configuration = channel.call(new Configuration.GetCurrent());
+                remember(channel, configuration);
+            }
+            return configuration;
+        }
+
+        /**
+         * The configuration of an agent does not change while it is connected, so it is kept as channel property.
+         */
+        @CheckForNull
+        static Configuration cached(@CheckForNull VirtualChannel channel) {
+            return channel instanceof Channel c ? (Configuration) c.getProperty(Configuration.class) : null;
+        }
+
+        static void remember(@CheckForNull VirtualChannel channel, Configuration configuration) {
+            if (channel instanceof Channel c) {
+                c.setProperty(Configuration.class, configuration);
+            }
         }
 
         static class GetCurrent extends MasterToSlaveCallable<Configuration, DetectionFailedException> {
@@ -241,6 +985,76 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         }
     }
 
+    /**
+     * State of an installation directory on an agent, together with the configuration of that agent.
+     *
+     * @param installed        Whether the marker file of the directory matches the requested id.
+     * @param cdsPending       Whether the installation still lacks the {@link ClassDataSharing} step.
+     * @param detected         The configuration of the agent, {@code null} if it was not requested or failed.
+     * @param detectionFailure Why the configuration could not be detected, {@code null} if it was not requested
+     *                         or succeeded.
+     */
+    private record InstallState(boolean installed, boolean cdsPending, Configuration detected, String detectionFailure)
+            implements Serializable {
+
+        /**
+         * Checks the marker file and, unless already known, detects the agent configuration in a single call.
+         */
+        static InstallState probe(FilePath expected, Node node, String id) throws IOException, InterruptedException {
+            VirtualChannel channel = node.getChannel();
+            Configuration cached = Configuration.cached(channel);
+            InstallState state = expected.act(new Probe(id, cached == null, ClassDataSharing.ENABLED));
+            if (cached != null) {
+                return new InstallState(state.installed(), state.cdsPending(), cached, null);
+            }
+            if (state.detected() != null) {
+                Configuration.remember(channel, state.detected());
+            }
+            return state;
+        }
+
+        Configuration configuration(Node node) throws IOException, InterruptedException, DetectionFailedException {
+            if (detectionFailure != null) {
+                throw new DetectionFailedException(detectionFailure);
+            }
+            return detected != null ? detected : Configuration.of(node);
+        }
+
+        private static final class Probe extends MasterToSlaveFileCallable<InstallState> {
+            private static final long serialVersionUID = 1L;
+
+            private final String id;
+            private final boolean detect;
+            private final boolean cds;
+
+            Probe(String id, boolean detect, boolean cds) {
+                this.id = id;
+                this.detect = detect;
+                this.cds = cds;
+            }
+
+            @Override
+            public InstallState invoke(File f, VirtualChannel channel) throws IOException {
+                Path marker = f.toPath().resolve(".installedByJenkins");
+                List<String> lines = Files.isRegularFile(marker)
+                        ? Files.readString(marker, Charset.defaultCharset())
+                                .lines()
+                                .toList()
+                        : List.of();
+                boolean installed = !lines.isEmpty() && lines.get(0).equals(id);
+                boolean cdsPending = installed && cds && ClassDataSharing.isPending(lines);
+                if (installed || !detect) {
+                    return new InstallState(installed, cdsPending, null, null);
+                }
+                try {
+                    return new InstallState(false, false, new Configuration(Platform.current(), CPU.current()), null);
+                } catch (DetectionFailedException e) {
+                    return new InstallState(false, false, null, e.getMessage());
+                }
+            }
+        }
+    }
+
     /**
      * Supported platform
      */
@@ -284,6 +1098,19 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         public String getId() {
             return id;
         }
+
+        /**
+         * @return The platform with the given Adoptium name, {@code null} if there is none.
+         */
+        @CheckForNull
+        static Platform of(@CheckForNull String id) {
+            for (Platform platform : values()) {
+                if (platform.id.equals(id)) {
+                    return platform;
+                }
+            }
+            return null;
+        }
     }
 
     /**
@@ -319,12 +1146,27 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
             }
             throw new DetectionFailedException(Messages.AdoptOpenJDKInstaller_CPU_unknownCpu(arch));
         }
+
+        /**
+         * @return The CPU with the given Adoptium name, {@code null} if there is none.
+         */
+        @CheckForNull
+        static CPU of(@CheckForNull String adoptiumName) {
+            for (CPU cpu : values()) {
+                if (cpu.adoptiumName.equals(adoptiumName)) {
+                    return cpu;
+                }
+            }
+            return null;
+        }
     }
 
     @Extension
     @Symbol("adoptOpenJdkInstaller")
     public static class DescriptorImpl extends ToolInstallerDescriptor<AdoptOpenJDKInstaller> {
 
+        private static final int AUTO_COMPLETE_LIMIT = 20;
+
         @NonNull
         @Override
         public String getDisplayName() {
@@ -337,27 +1179,129 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         }
 
         public List<AdoptOpenJDKFamily> getInstallableJDKs() throws IOException {
-            return Arrays.asList(getAdoptOpenJDKFamilyList().data);
+            return Collections.unmodifiableList(Arrays.asList(getAdoptOpenJDKFamilyList().data));
+        }
+
+        /**
+         * Suggests the newest releases starting with what has been typed, instead of rendering the whole catalog
+         * into every installer on the page.
+         */
+        public AutoCompletionCandidates doAutoCompleteId(@QueryParameter String value) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+            if (Jenkins.get().hasPermission(Jenkins.MANAGE)) {
+                for (AdoptOpenJDKRelease release :
+                        getAdoptOpenJDKFamilyList().find(value, AUTO_COMPLETE_LIMIT)) {
+                    candidates.add(release.release_name);
+                }
+            }
+            return candidates;
+        }
+
+        @POST
+        public FormValidation doCheckId(@QueryParameter String value) throws IOException {
+            if (!Jenkins.get().hasPermission(Jenkins.MANAGE)) {
+                return FormValidation.ok();
+            }
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.error(Messages.AdoptOpenJDKInstaller_DescriptorImpl_doCheckId_required());
+            }
+            AdoptOpenJDKFamilyList list = getAdoptOpenJDKFamilyList();
+            if (!list.isEmpty() && list.getRelease(value.trim()) == null) {
+                return FormValidation.warning(Messages.AdoptOpenJDKInstaller_DescriptorImpl_doCheckId_unknown(value));
+            }
+            return FormValidation.ok();
+        }
+
+        @POST
+        public FormValidation doCheckModules(@QueryParameter String value) {
+            if (!Jenkins.get().hasPermission(Jenkins.MANAGE)) {
+                return FormValidation.ok();
+            }
+            String modules = JlinkImage.normalize(value);
+            if (modules != null && !JlinkImage.isValidModules(modules)) {
+                return FormValidation.error(Messages.AdoptOpenJDKInstaller_DescriptorImpl_doCheckModules_invalid());
+            }
+            return FormValidation.ok();
+        }
+
+        @POST
+        public FormValidation doCheckCompression(@QueryParameter String value) {
+            if (!Jenkins.get().hasPermission(Jenkins.MANAGE)) {
+                return FormValidation.ok();
+            }
+            String compression = Util.fixEmptyAndTrim(value);
+            if (compression != null && !JlinkImage.isValidCompression(compression)) {
+                return FormValidation.error(
+                        Messages.AdoptOpenJDKInstaller_DescriptorImpl_doCheckCompression_invalid(compression));
+            }
+            return FormValidation.ok();
+        }
+
+        /**
+         * Phase timings, transferred bytes and cache usage of the installations since the controller started,
+         * per release, platform and CPU, as JSON.
+         */
+        @GET
+        public HttpResponse doMetrics() {
+            Jenkins.get().checkPermission(Jenkins.MANAGE);
+            return HttpResponses.okJSON(InstallMetrics.get().toJSON());
         }
     }
 
     @Extension
     @Symbol("adoptOpenJdk")
     public static final class AdoptOpenJDKList extends DownloadService.Downloadable {
+        /**
+         * Last parsed catalog together with the state of the data file it was parsed from.
+         */
+        private transient volatile Snapshot snapshot;
+
         public AdoptOpenJDKList() {
             super(AdoptOpenJDKInstaller.class);
         }
 
+        /**
+         * Returns the parsed release catalog.
+         * The catalog is only parsed again after the data file has been updated, so the returned instance
+         * is shared and must not be modified.
+         */
         public AdoptOpenJDKFamilyList toList() throws IOException {
+            File file = getDataFile().file;
+            long lastModified = file.lastModified();
+            long length = file.length();
+            Snapshot s = snapshot;
+            if (s != null && s.lastModified() == lastModified && s.length() == length) {
+                return s.list();
+            }
+            AdoptOpenJDKFamilyList list = parse();
+            snapshot = new Snapshot(lastModified, length, list);
+            return list;
+        }
+
+        private AdoptOpenJDKFamilyList parse() throws IOException {
             JSONObject d = getData();
             if (d == null) return new AdoptOpenJDKFamilyList();
-            AdoptOpenJDKFamilyList list = (AdoptOpenJDKFamilyList) JSONObject.toBean(d, AdoptOpenJDKFamilyList.class);
+            AdoptOpenJDKFamilyList list = CatalogReader.read(d);
             Collections.reverse(Arrays.asList(list.data));
+            list.index();
             return list;
         }
+
+        /**
+         * Called with the release lists of the update sites when Jenkins updates the list, which is when the
+         * releases that are new in the list can be prefetched.
+         */
+        @Override
+        public JSONObject reduce(List<JSONObject> jsonList) {
+            JSONObject reduced = super.reduce(jsonList);
+            CachePrefetcher.scheduleScan();
+            return reduced;
+        }
+
+        private record Snapshot(long lastModified, long length, AdoptOpenJDKFamilyList list) {}
     }
 
-    private static final class DetectionFailedException extends Exception {
+    static final class DetectionFailedException extends Exception {
         private static final long serialVersionUID = -8069815243317818959L;
 
         private DetectionFailedException(String message) {
@@ -372,6 +1316,8 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         public AdoptOpenJDKFamily[] data = new AdoptOpenJDKFamily[0];
         public int version;
 
+        private transient volatile Map<String, AdoptOpenJDKRelease> releasesByName;
+
         public boolean isEmpty() {
             for (AdoptOpenJDKFamily f : data) {
                 if (f.releases.length > 0) {
@@ -382,14 +1328,54 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         }
 
         public AdoptOpenJDKRelease getRelease(String productCode) {
+            if (productCode == null) {
+                return null;
+            }
+            Map<String, AdoptOpenJDKRelease> index = releasesByName;
+            if (index == null) {
+                index = index();
+            }
+            return index.get(productCode);
+        }
+
+        /**
+         * Finds the releases whose name starts with a prefix, newest family first and in catalog order within a
+         * family.
+         *
+         * @param prefix Start of the release name, with or without {@code jdk-}, {@code null} for all.
+         * @param limit  Maximum number of releases.
+         */
+        public List<AdoptOpenJDKRelease> find(@CheckForNull String prefix, int limit) {
+            List<AdoptOpenJDKRelease> found = new ArrayList<>();
             for (AdoptOpenJDKFamily f : data) {
                 for (AdoptOpenJDKRelease r : f.releases) {
-                    if (r.matchesId(productCode)) {
-                        return r;
+                    if (found.size() >= limit) {
+                        return found;
+                    }
+                    if (r.release_name != null && r.hasPrefix(prefix)) {
+                        found.add(r);
                     }
                 }
             }
-            return null;
+            return found;
+        }
+
+        /**
+         * Builds the lookup tables of this list and of all its releases.
+         * The first release with a given name wins, like the linear search did.
+         */
+        Map<String, AdoptOpenJDKRelease> index() {
+            Map<String, AdoptOpenJDKRelease> index = new HashMap<>();
+            for (AdoptOpenJDKFamily f : data) {
+                for (AdoptOpenJDKRelease r : f.releases) {
+                    if (r.release_name != null) {
+                        index.putIfAbsent(r.release_name, r);
+                    }
+                    r.index();
+                }
+            }
+            releasesByName = index;
+            return index;
         }
     }
 
@@ -409,21 +1395,45 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         public String release_name;
         public String openjdk_impl;
 
+        private transient volatile Map<BinaryKey, AdoptOpenJDKFile> binariesByKey;
+
         public boolean matchesId(String rhs) {
             return rhs != null && rhs.equals(release_name);
         }
 
+        boolean hasPrefix(@CheckForNull String prefix) {
+            return prefix == null
+                    || release_name.startsWith(prefix)
+                    || release_name.startsWith("jdk-" + prefix)
+                    || release_name.startsWith("jdk" + prefix);
+        }
+
         public AdoptOpenJDKFile getBinary(Platform platform, CPU cpu) {
+            Map<BinaryKey, AdoptOpenJDKFile> index = binariesByKey;
+            if (index == null) {
+                index = index();
+            }
+            return index.get(new BinaryKey(platform, cpu, openjdk_impl));
+        }
+
+        /**
+         * Binaries for an operating system or architecture unknown to {@link Platform} or {@link CPU} cannot be
+         * requested and are left out.
+         */
+        Map<BinaryKey, AdoptOpenJDKFile> index() {
+            Map<BinaryKey, AdoptOpenJDKFile> index = new HashMap<>();
             for (AdoptOpenJDKFile f : binaries) {
-                if (!platform.getId().equals(f.os) || !openjdk_impl.equals(f.openjdk_impl)) {
-                    continue;
-                }
-                if (cpu.adoptiumName.equals(f.architecture)) {
-                    return f;
+                Platform platform = f.platform != null ? f.platform : Platform.of(f.os);
+                CPU cpu = f.cpu != null ? f.cpu : CPU.of(f.architecture);
+                if (platform != null && cpu != null) {
+                    index.putIfAbsent(new BinaryKey(platform, cpu, f.openjdk_impl), f);
                 }
             }
-            return null;
+            binariesByKey = index;
+            return index;
         }
+
+        private record BinaryKey(Platform platform, CPU cpu, String openjdkImpl) {}
     }
 
     @SuppressFBWarnings(
@@ -434,5 +1444,14 @@ public class AdoptOpenJDKInstaller extends ToolInstaller {
         public String os;
         public String openjdk_impl;
         public String binary_link;
+
+        /**
+         * {@link #os} and {@link #architecture} as resolved by {@link CatalogReader}, {@code null} if unknown
+         */
+        @CheckForNull
+        transient Platform platform;
+
+        @CheckForNull
+        transient CPU cpu;
     }
 }
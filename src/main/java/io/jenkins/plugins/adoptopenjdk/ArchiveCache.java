@@ -0,0 +1,594 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Bookkeeping of the archives in the controller cache.
+ * <p>
+ * The index records size, last access, hit count and SHA-256 checksum of every archive and is persisted next to the
+ * archives.
+ * When a byte budget is configured, the least recently used archives are evicted in the background until the cache
+ * fits into it again. The manifests computed from the archives count against the budget and are evicted with them.
+ * Archives are leased while they are read, and leased archives are never evicted. A corrupted archive that is still
+ * leased is no longer handed out, and deleted once its last lease is closed.
+ */
+@Restricted(NoExternalUse.class)
+public final class ArchiveCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ArchiveCache.class.getName());
+
+    /**
+     * Byte budget of the cache, {@code 0} for no limit.
+     */
+    private static long MAX_SIZE = Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".cache.maxSize", 0);
+
+    static final String ROOT = "caches/adoptopenjdk";
+
+    private static final String INDEX = "index.xml";
+
+    /**
+     * Suffix of evicted files until they are deleted, ignored by the index like other temporary files.
+     */
+    private static final String EVICTED = ".evicted.tmp";
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("adoptopenjdk-cache", Index.class);
+        XSTREAM.alias("entry", Entry.class);
+    }
+
+    private static ArchiveCache instance;
+
+    private final Path root;
+    private final long maxSize;
+    private final LongSupplier clock;
+    private final XmlFile indexFile;
+    private final Index index;
+    private final Map<String, Integer> leases = new HashMap<>();
+    private final Set<String> invalid = new HashSet<>();
+    private final Object evicting = new Object();
+    private boolean dirty;
+
+    ArchiveCache(File root, long maxSize, LongSupplier clock) {
+        this.root = root.toPath();
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.indexFile = new XmlFile(XSTREAM, new File(root, INDEX));
+        this.index = load();
+    }
+
+    /**
+     * Returns the cache of the running Jenkins instance.
+     */
+    static synchronized ArchiveCache get() {
+        File root = new File(Jenkins.get().getRootDir(), ROOT);
+        if (instance == null || !instance.root.equals(root.toPath())) {
+            instance = new ArchiveCache(root, MAX_SIZE, System::currentTimeMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Leases an archive that is present in the cache and counts the access as hit.
+     *
+     * @return The lease or {@code null} if the archive is not in the cache.
+     */
+    @CheckForNull
+    synchronized Lease lease(File file) {
+        String key = key(file);
+        if (!file.isFile() || invalid.contains(key)) {
+            return null;
+        }
+        Entry entry = index.entries.computeIfAbsent(key, k -> new Entry(file.length()));
+        entry.lastAccess = clock.getAsLong();
+        entry.hits++;
+        dirty = true;
+        return pin(key, file, false);
+    }
+
+    /**
+     * Adds a freshly filled archive to the index and leases it to the filler.
+     *
+     * @param sha256 The checksum the archive must have, {@code null} if it is not known yet.
+     */
+    synchronized Lease add(File file, @CheckForNull String sha256) {
+        String key = key(file);
+        invalid.remove(key); // the archive replaced the corrupted one, which only its remaining readers still see
+        Entry entry = new Entry(file.length());
+        entry.lastAccess = clock.getAsLong();
+        entry.sha256 = sha256;
+        index.entries.put(key, entry);
+        dirty = true;
+        save();
+        Lease lease = pin(key, file, true);
+        if (maxSize > 0) {
+            Timer.get().submit(this::evict);
+        }
+        return lease;
+    }
+
+    /**
+     * Leases an archive to transfer it for the holder of another lease, without counting an access.
+     *
+     * @return The lease or {@code null} if the archive is not in the cache.
+     */
+    @CheckForNull
+    synchronized Lease hold(File file) {
+        String key = key(file);
+        if (!file.isFile() || !index.entries.containsKey(key) || invalid.contains(key)) {
+            return null;
+        }
+        return pin(key, file, false);
+    }
+
+    /**
+     * Whether the archive is in the cache and can be leased.
+     */
+    synchronized boolean contains(File file) {
+        return file.isFile() && !invalid.contains(key(file));
+    }
+
+    /**
+     * Bytes the archives take in the cache, together with the files derived from them.
+     */
+    synchronized long size() {
+        return index.entries.entrySet().stream()
+                .mapToLong(e -> footprint(e.getKey(), e.getValue()))
+                .sum();
+    }
+
+    /**
+     * Bytes an archive takes in the cache, including its manifest, which is written after the archive is added.
+     */
+    private long footprint(String key, Entry entry) {
+        return entry.size + root.resolve(key + DeltaInstall.MANIFEST).toFile().length();
+    }
+
+    @CheckForNull
+    synchronized Entry entry(File file) {
+        return index.entries.get(key(file));
+    }
+
+    /**
+     * Removes the least recently used archives that are not leased until the cache fits into its budget.
+     * The archives are chosen and renamed out of the way while the cache is locked, and deleted after it is unlocked.
+     * One eviction runs at a time.
+     */
+    void evict() {
+        synchronized (evicting) {
+            deleteDetached(detachVictims());
+        }
+    }
+
+    /**
+     * Removes the installations that releases before the archive cache re-packed as {@code <platform>/<cpu>/<id>.zip},
+     * which are only used with {@code cache.repack}. Leased ones are removed by a later call.
+     */
+    void removeRepacked() {
+        synchronized (evicting) {
+            deleteDetached(detachRepacked());
+        }
+    }
+
+    private synchronized List<Path> detachRepacked() {
+        List<Path> repacked = new ArrayList<>();
+        for (String key : new ArrayList<>(index.entries.keySet())) {
+            if (!key.endsWith(".zip") || key.split("/").length != 3 || leases.containsKey(key)) {
+                continue; // archives are cached one directory deeper, below the id of their release
+            }
+            Path file = root.resolve(key);
+            try {
+                detach(file, repacked);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + file, e);
+                continue;
+            }
+            LOGGER.log(Level.FINE, "Removed the re-packed installation {0} from the cache", file);
+            index.entries.remove(key);
+            dirty = true;
+        }
+        save();
+        return repacked;
+    }
+
+    private void deleteDetached(List<Path> detached) {
+        for (Path file : detached) {
+            try {
+                Files.deleteIfExists(file);
+                deleteEmptyParents(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Removes the archives to evict from the index and renames them out of the way.
+     *
+     * @return The renamed files, to be deleted.
+     */
+    private synchronized List<Path> detachVictims() {
+        List<Path> evicted = new ArrayList<>();
+        if (maxSize <= 0) {
+            return evicted;
+        }
+        long size = size();
+        if (size <= maxSize) {
+            return evicted;
+        }
+        List<Map.Entry<String, Entry>> candidates = new ArrayList<>(index.entries.entrySet());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (Map.Entry<String, Entry> candidate : candidates) {
+            if (size <= maxSize) {
+                break;
+            }
+            String key = candidate.getKey();
+            if (leases.containsKey(key)) {
+                continue;
+            }
+            Path file = root.resolve(key);
+            long footprint = footprint(key, candidate.getValue());
+            try {
+                detach(file, evicted);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + file, e);
+                continue;
+            }
+            LOGGER.log(Level.FINE, "Evicted {0} from the cache", file);
+            index.entries.remove(key);
+            size -= footprint;
+            dirty = true;
+        }
+        save();
+        return evicted;
+    }
+
+    /**
+     * Writes the index if it has changed since it was last written or loaded.
+     */
+    synchronized void save() {
+        if (!dirty || (index.entries.isEmpty() && !Files.isDirectory(root))) {
+            return;
+        }
+        try {
+            Files.createDirectories(root);
+            indexFile.write(index);
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the cache index " + indexFile, e);
+        }
+    }
+
+    private Lease pin(String key, File file, boolean filled) {
+        leases.merge(key, 1, Integer::sum);
+        return new Lease(key, file, filled);
+    }
+
+    private synchronized void release(String key) {
+        leases.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+        if (!leases.containsKey(key) && invalid.remove(key)) {
+            remove(key);
+        }
+    }
+
+    @CheckForNull
+    private synchronized String sha256(String key) {
+        Entry entry = index.entries.get(key);
+        return entry == null ? null : entry.sha256;
+    }
+
+    private synchronized void verified(String key, String sha256) {
+        Entry entry = index.entries.get(key);
+        if (entry != null && entry.sha256 == null) {
+            entry.sha256 = sha256;
+            dirty = true;
+            save();
+        }
+    }
+
+    private synchronized void invalidate(String key) {
+        index.entries.remove(key);
+        dirty = true;
+        save();
+        if (leases.containsKey(key)) {
+            invalid.add(key); // removed when the last reader is done with it
+        } else {
+            remove(key);
+        }
+    }
+
+    private void remove(String key) {
+        Path file = root.resolve(key);
+        try {
+            delete(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove " + file, e);
+        }
+    }
+
+    private String key(File file) {
+        return root.relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Deletes an archive together with the files derived from it.
+     */
+    private void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + DeltaInstall.MANIFEST));
+        deleteEmptyParents(file);
+    }
+
+    /**
+     * Renames an archive and the files derived from it to names the cache ignores, so that they can be deleted
+     * without holding the lock of the cache.
+     *
+     * @param detached Receives the renamed files.
+     */
+    private void detach(Path file, List<Path> detached) throws IOException {
+        for (Path f : List.of(file.resolveSibling(file.getFileName() + DeltaInstall.MANIFEST), file)) {
+            if (Files.exists(f)) {
+                Path moved = f.resolveSibling(f.getFileName() + EVICTED);
+                Files.move(f, moved, StandardCopyOption.REPLACE_EXISTING);
+                detached.add(moved);
+            }
+        }
+    }
+
+    private void deleteEmptyParents(Path file) throws IOException {
+        for (Path dir = file.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+            try (Stream<Path> children = Files.list(dir)) {
+                if (children.findAny().isPresent()) {
+                    return;
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Reads the persisted index and reconciles it with the archives actually present on disk.
+     */
+    private Index load() {
+        Index loaded = null;
+        if (indexFile.exists()) {
+            try {
+                loaded = (Index) indexFile.read();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to read the cache index " + indexFile + ", rebuilding it", e);
+            }
+        }
+        if (loaded == null || loaded.entries == null) {
+            loaded = new Index();
+        }
+        Map<String, Entry> present = new TreeMap<>();
+        List<Path> manifests = new ArrayList<>();
+        List<Path> evicted = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(Files::isRegularFile).forEach(f -> {
+                    if (String.valueOf(f.getFileName()).endsWith(EVICTED)) {
+                        evicted.add(f);
+                    } else if (String.valueOf(f.getFileName()).endsWith(DeltaInstall.MANIFEST)) {
+                        manifests.add(f);
+                    } else if (!isBookkeeping(f)) {
+                        present.put(key(f.toFile()), new Entry(f.toFile().length()));
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to list the cache " + root, e);
+                return loaded;
+            }
+        }
+        for (Path file : evicted) {
+            // evicted before Jenkins stopped and not yet deleted
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + file, e);
+            }
+        }
+        for (Path manifest : manifests) {
+            String name = String.valueOf(manifest.getFileName());
+            Path archive = manifest.resolveSibling(name.substring(0, name.length() - DeltaInstall.MANIFEST.length()));
+            if (!present.containsKey(key(archive.toFile()))) {
+                // left behind by an archive that was removed without it, it would never count against the budget
+                try {
+                    Files.delete(manifest);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to remove " + manifest, e);
+                }
+            }
+        }
+        for (Map.Entry<String, Entry> e : present.entrySet()) {
+            Entry known = loaded.entries.get(e.getKey());
+            if (known != null && known.size == e.getValue().size) {
+                e.setValue(known);
+            } else {
+                // archives cached before the index existed count as used when they were written
+                e.getValue().lastAccess = root.resolve(e.getKey()).toFile().lastModified();
+            }
+        }
+        dirty = !present.equals(loaded.entries);
+        loaded.entries = present;
+        return loaded;
+    }
+
+    private boolean isBookkeeping(Path file) {
+        String name = String.valueOf(file.getFileName());
+        return (name.equals(INDEX) && root.equals(file.getParent()))
+                || name.endsWith(".tmp")
+                || name.endsWith(".lock")
+                || name.endsWith(ArchiveDownloader.PART)
+                || name.endsWith(ArchiveDownloader.CHUNKS)
+                || name.endsWith(DeltaInstall.MANIFEST);
+    }
+
+    /**
+     * An archive that is read from the cache and must not be evicted until the lease is closed.
+     */
+    final class Lease implements AutoCloseable {
+        private final String key;
+        private final File file;
+        private final boolean filled;
+        private boolean closed;
+
+        private Lease(String key, File file, boolean filled) {
+            this.key = key;
+            this.file = file;
+            this.filled = filled;
+        }
+
+        File file() {
+            return file;
+        }
+
+        /**
+         * Whether the archive was filled by the holder of this lease.
+         */
+        boolean filled() {
+            return filled;
+        }
+
+        /**
+         * The checksum the archive must have, {@code null} if it is not known yet.
+         */
+        @CheckForNull
+        String sha256() {
+            return ArchiveCache.this.sha256(key);
+        }
+
+        /**
+         * Records the checksum of an archive that had none, once it was computed while reading the archive.
+         */
+        void verified(String sha256) {
+            ArchiveCache.this.verified(key, sha256);
+        }
+
+        /**
+         * Removes a corrupted archive from the cache, so that it is filled again by the next caller.
+         */
+        void invalidate() {
+            ArchiveCache.this.invalidate(key);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(key);
+            }
+        }
+    }
+
+    static final class Index {
+        Map<String, Entry> entries = new TreeMap<>();
+    }
+
+    static final class Entry {
+        long size;
+        long lastAccess;
+        long hits;
+        String sha256;
+
+        Entry(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry e
+                    && size == e.size
+                    && lastAccess == e.lastAccess
+                    && hits == e.hits
+                    && Objects.equals(sha256, e.sha256);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastAccess, hits, sha256);
+        }
+    }
+
+    /**
+     * Persists access statistics and enforces the budget of the cache. Installations re-packed by earlier releases are
+     * removed unless {@code cache.repack} still uses them.
+     */
+    @Extension
+    public static final class Maintenance extends AsyncPeriodicWork {
+
+        public Maintenance() {
+            super("Eclipse Temurin cache maintenance");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(15);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            ArchiveCache cache = ArchiveCache.get();
+            if (!AdoptOpenJDKInstaller.REPACK_CACHE) {
+                cache.removeRepacked();
+            }
+            cache.evict();
+            cache.save();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * SHA-256 checksums of archives, as published by Adoptium next to every release archive.
+ */
+final class ArchiveChecksum {
+
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    private ArchiveChecksum() {}
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every Java platform supports SHA-256", e);
+        }
+    }
+
+    static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Fetches the checksum Adoptium publishes next to an archive, {@code <archive>.sha256.txt}.
+     * The checksum always comes from upstream and never from a mirror, so that a mirror cannot vouch for what it
+     * serves itself.
+     *
+     * @param archive The upstream location of the archive, the {@code binary_link} of the catalog.
+     * @param log     Receives a warning if the archive cannot be verified.
+     * @return The checksum or {@code null} if none is published.
+     * @throws IOException If the checksum cannot be fetched, see {@link #unreachable(URI, IOException, TaskListener)}.
+     */
+    @CheckForNull
+    static String fetch(URI archive, TaskListener log) throws IOException, InterruptedException {
+        URI source = location(archive);
+        HttpResponse<String> response;
+        try {
+            response = ArchiveDownloader.client()
+                    .send(
+                            ArchiveDownloader.request(source).GET().build(),
+                            HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return unreachable(source, e, log);
+        }
+        return published(source, response.statusCode(), response.body(), log);
+    }
+
+    static URI location(URI archive) {
+        return URI.create(archive + ".sha256.txt");
+    }
+
+    /**
+     * Interprets the answer to the request for a published checksum.
+     *
+     * @return The checksum or {@code null} if none is published, which is reported to the build log.
+     * @throws IOException If the request failed or the published checksum is malformed.
+     */
+    @CheckForNull
+    static String published(URI source, int status, String body, TaskListener log) throws IOException {
+        if (status == 404) {
+            log.getLogger().println(Messages.ArchiveChecksum_fetch_missing(source));
+            return null;
+        }
+        if (status != 200) {
+            throw new IOException(Messages.ArchiveChecksum_fetch_failed(source, "HTTP status " + status));
+        }
+        String checksum = parse(body);
+        if (checksum == null) {
+            throw new IOException(Messages.ArchiveChecksum_fetch_malformed(source));
+        }
+        return checksum;
+    }
+
+    /**
+     * Handles a checksum that cannot be fetched because upstream is not reachable. That fails the download, unless
+     * only mirrors are used, in which case upstream may well be out of reach and the archive is used unverified.
+     *
+     * @return {@code null} if the archive is used unverified, which is reported to the build log.
+     */
+    @CheckForNull
+    static String unreachable(URI source, IOException e, TaskListener log) throws IOException {
+        return unreachable(source, e, DownloadMirrors.MIRRORS_ONLY, log);
+    }
+
+    @CheckForNull
+    static String unreachable(URI source, IOException e, boolean mirrorsOnly, TaskListener log) throws IOException {
+        if (!mirrorsOnly) {
+            throw new IOException(Messages.ArchiveChecksum_fetch_failed(source, e.getMessage()), e);
+        }
+        log.getLogger().println(Messages.ArchiveChecksum_fetch_unreachable(source, e.getMessage()));
+        return null;
+    }
+
+    /**
+     * Parses a checksum file in the {@code sha256sum} format, {@code <checksum>  <file name>}.
+     */
+    @CheckForNull
+    static String parse(String published) {
+        String[] tokens = published.trim().split("\\s+", 2);
+        String checksum = tokens[0].toLowerCase(Locale.ENGLISH);
+        return SHA256.matcher(checksum).matches() ? checksum : null;
+    }
+
+    /**
+     * Adds the bytes of {@code file} after the first {@code read} bytes to the digest. Extraction stops reading
+     * an archive once its last entry is read, this covers the padding that may follow.
+     */
+    static void digestRemaining(MessageDigest digest, Path file, long read) throws IOException {
+        try (FileChannel fc = FileChannel.open(file)) {
+            if (read >= fc.size()) {
+                return;
+            }
+            fc.position(read);
+            InputStream in = Channels.newInputStream(fc);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,755 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.ProxyConfiguration;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+/**
+ * Downloads upstream archives to the controller, honoring the Jenkins proxy configuration, or on an agent for
+ * controllers that cannot reach upstream.
+ * <p>
+ * When the server supports range requests, the archive is fetched in chunks by several connections at once.
+ * The chunks are written into a {@code .part} file, and the chunks already written are recorded in a
+ * {@code .chunks} file next to it, so that an interrupted download resumes where it stopped. Servers without
+ * range support get a single sequential request.
+ * <p>
+ * A single request is verified against the expected checksum while it is written. Chunks arrive out of order, so
+ * an archive downloaded in ranges is digested in the order of the offsets while it is downloaded and verified once
+ * all chunks are written, before it is renamed into place. Only chunks that arrived ahead of the current offset and
+ * those of a resumed download are read back from the file for that. Each chunk is forced to the disk before it is
+ * recorded as written, so that a resumed download never relies on a chunk that was lost in a crash.
+ * <p>
+ * A hedged download, one of several concurrent downloads of the same archive, always uses a single request so that
+ * its progress can be measured and the attempts do not share a {@code .part} file.
+ */
+final class ArchiveDownloader {
+
+    private static final Logger LOGGER = Logger.getLogger(ArchiveDownloader.class.getName());
+
+    /**
+     * Number of concurrent range requests per download, {@code 1} to always download with a single request.
+     */
+    static int THREADS = Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".download.threads", 4);
+
+    /**
+     * Size of a range request in bytes.
+     */
+    static int CHUNK_SIZE =
+            Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".download.chunkSize", 8 * 1024 * 1024);
+
+    static final String PART = ".part";
+
+    static final String CHUNKS = ".chunks";
+
+    private static final int TIMEOUT = (int) TimeUnit.MINUTES.toMillis(1);
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "ArchiveDownloader"));
+
+    /**
+     * The client of the current proxy configuration, replaced when the proxy configuration is saved.
+     */
+    private static volatile Client CLIENT;
+
+    private ArchiveDownloader() {}
+
+    /**
+     * Returns the client shared by all requests of the controller, which honors the Jenkins proxy configuration and
+     * gives up connecting after {@link #TIMEOUT}.
+     */
+    static HttpClient client() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        ProxyConfiguration proxy = jenkins != null ? jenkins.proxy : null;
+        Client client = CLIENT;
+        if (client == null || client.proxy() != proxy) {
+            client = new Client(
+                    proxy,
+                    ProxyConfiguration.newHttpClientBuilder()
+                            .connectTimeout(Duration.ofMillis(TIMEOUT))
+                            .build());
+            CLIENT = client;
+        }
+        return client.client();
+    }
+
+    /**
+     * Starts a request of the controller that fails if no response arrives within {@link #TIMEOUT}.
+     */
+    static HttpRequest.Builder request(URI source) {
+        return ProxyConfiguration.newHttpRequestBuilder(source).timeout(Duration.ofMillis(TIMEOUT));
+    }
+
+    /**
+     * Downloads {@code source} to {@code target}.
+     * The content is written to a temporary file next to the target that is renamed into place once complete,
+     * so a partially downloaded archive is never visible under the target name.
+     *
+     * @param source The URL to download from.
+     * @param target The file to create or replace.
+     * @param sha256 The expected checksum of the archive, {@code null} if it is unknown.
+     * @param log    Receives a message if a previous download is resumed.
+     * @return The expected checksum the archive was verified against, {@code null} if it is unknown.
+     * @throws IOException          If the download fails, the server does not answer with the archive or the
+     *                              archive does not match the expected checksum.
+     * @throws InterruptedException If the download was interrupted.
+     */
+    @CheckForNull
+    static String download(URI source, Path target, @CheckForNull String sha256, TaskListener log)
+            throws IOException, InterruptedException {
+        return download(source, target, sha256, log, null);
+    }
+
+    /**
+     * Downloads {@code source} to {@code target} as one attempt of a hedged download.
+     *
+     * @param attempt Receives the progress of the download and decides whether it is used, {@code null} if the
+     *                download is not hedged.
+     * @see #download(URI, Path, String, TaskListener)
+     */
+    @CheckForNull
+    static String download(
+            URI source,
+            Path target,
+            @CheckForNull String sha256,
+            TaskListener log,
+            @CheckForNull DownloadMirrors.Attempt attempt)
+            throws IOException, InterruptedException {
+        Path dir = target.getParent();
+        if (dir == null) {
+            throw new NullPointerException("Parent directory of " + target + " is null");
+        }
+        Files.createDirectories(dir);
+        HttpClient client = client();
+        Remote remote = THREADS > 1 && attempt == null ? probe(client, source) : null;
+        if (remote != null) {
+            try {
+                downloadChunks(client, remote, target, sha256, log);
+                return sha256;
+            } catch (RangeIgnoredException e) {
+                LOGGER.log(Level.FINE, "{0} ignored a range request, downloading with a single request", source);
+                discard(target);
+            }
+        }
+        return downloadStream(client, source, target, sha256, attempt);
+    }
+
+    private static String downloadStream(
+            HttpClient client,
+            URI source,
+            Path target,
+            @CheckForNull String sha256,
+            @CheckForNull DownloadMirrors.Attempt attempt)
+            throws IOException, InterruptedException {
+        Path tmp = Files.createTempFile(target.getParent(), String.valueOf(target.getFileName()), ".tmp");
+        try {
+            HttpRequest request = request(source).GET().build();
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            MessageDigest digest = ArchiveChecksum.newDigest();
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException(Messages.ArchiveDownloader_download_failed(source, response.statusCode()));
+                }
+                InputStream in = new DigestInputStream(body, digest);
+                Files.copy(attempt != null ? attempt.count(in) : in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String actual = ArchiveChecksum.toHex(digest);
+            if (sha256 != null && !sha256.equals(actual)) {
+                throw new IOException(Messages.ArchiveDownloader_download_checksumMismatch(source, sha256, actual));
+            }
+            if (attempt != null) {
+                attempt.win();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            return sha256;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Asks the server for the length of the archive and whether it can be downloaded in ranges.
+     *
+     * @return The archive or {@code null} if it has to be downloaded with a single request.
+     */
+    private static Remote probe(HttpClient client, URI source) throws InterruptedException {
+        HttpRequest request = request(source)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<Void> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to probe " + source, e);
+            return null;
+        }
+        if (response.statusCode() != 200
+                || !response.headers()
+                        .firstValue("Accept-Ranges")
+                        .orElse("")
+                        .toLowerCase(Locale.ENGLISH)
+                        .contains("bytes")) {
+            return null;
+        }
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (length <= CHUNK_SIZE) {
+            return null;
+        }
+        // weak entity tags must not be used with If-Range
+        String validator = response.headers()
+                .firstValue("ETag")
+                .filter(etag -> !etag.startsWith("W/"))
+                .or(() -> response.headers().firstValue("Last-Modified"))
+                .orElse(null);
+        // a redirect, for example to a signed download URL, is followed once and not for every chunk
+        return new Remote(source, response.uri(), length, validator);
+    }
+
+    private static void downloadChunks(
+            HttpClient client, Remote remote, Path target, @CheckForNull String sha256, TaskListener log)
+            throws IOException, InterruptedException {
+        Partial partial = Partial.open(target, remote, CHUNK_SIZE);
+        int chunks = partial.chunks();
+        Queue<Integer> todo = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < chunks; i++) {
+            if (!partial.isDone(i)) {
+                todo.add(i);
+            }
+        }
+        if (todo.size() < chunks) {
+            log.getLogger()
+                    .println(Messages.ArchiveDownloader_download_resume(remote.source(), chunks - todo.size(), chunks));
+        }
+        String actual = null;
+        try (FileChannel out = FileChannel.open(partial.part, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            RunningDigest running = sha256 != null ? new RunningDigest(partial, out) : null;
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(THREADS, todo.size()); i++) {
+                workers.add(EXECUTOR.submit(() -> {
+                    try {
+                        Integer chunk;
+                        while ((chunk = todo.poll()) != null) {
+                            MessageDigest digest = running != null ? running.claim(chunk) : null;
+                            fetch(client, remote, partial, chunk, out, digest);
+                            out.force(false);
+                            partial.done(chunk);
+                            if (running != null) {
+                                running.advance(digest != null);
+                            }
+                        }
+                        return null;
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        todo.clear(); // let the other workers stop after their current chunk
+                        throw e;
+                    }
+                }));
+            }
+            IOException failure = null;
+            try {
+                for (Future<Void> worker : workers) {
+                    try {
+                        worker.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (failure == null) {
+                            failure = cause instanceof IOException io ? io : new IOException(cause);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                workers.forEach(worker -> worker.cancel(true));
+                throw e;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (running != null) {
+                actual = running.finish();
+            }
+        }
+        if (actual != null && !actual.equals(sha256)) {
+            discard(target); // a resumed download would assemble the same archive again
+            throw new IOException(
+                    Messages.ArchiveDownloader_download_checksumMismatch(remote.source(), sha256, actual));
+        }
+        Files.move(partial.part, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(partial.progress);
+    }
+
+    /**
+     * Downloads a chunk into its place in the file.
+     *
+     * @param digest Receives the content of the chunk, {@code null} if it is not digested while it is downloaded.
+     */
+    private static void fetch(
+            HttpClient client,
+            Remote remote,
+            Partial partial,
+            int chunk,
+            FileChannel out,
+            @CheckForNull MessageDigest digest)
+            throws IOException, InterruptedException {
+        long from = (long) chunk * partial.chunkSize;
+        long to = Math.min(from + partial.chunkSize, remote.length()) - 1;
+        HttpRequest.Builder request = request(remote.location()).header("Range", "bytes=" + from + "-" + to);
+        if (remote.validator() != null) {
+            request.header("If-Range", remote.validator());
+        }
+        HttpResponse<InputStream> response =
+                client.send(request.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 200) {
+                throw new RangeIgnoredException();
+            }
+            if (response.statusCode() != 206) {
+                throw new IOException(
+                        Messages.ArchiveDownloader_download_failed(remote.source(), response.statusCode()));
+            }
+            byte[] buffer = new byte[64 * 1024];
+            long position = from;
+            int n;
+            while (position <= to
+                    && (n = body.read(buffer, 0, (int) Math.min(buffer.length, to + 1 - position))) >= 0) {
+                if (digest != null) {
+                    digest.update(buffer, 0, n);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    position += out.write(bytes, position);
+                }
+            }
+            if (position != to + 1) {
+                throw new IOException(Messages.ArchiveDownloader_download_truncated(remote.source(), from, to));
+            }
+        }
+    }
+
+    /**
+     * Downloads an archive on an agent, for controllers that cannot reach upstream.
+     * The agent hedges slow sources like the controller, or tries them in order, and verifies each download against
+     * the checksum published upstream, see {@link ArchiveChecksum#fetch(URI, TaskListener)}.
+     *
+     * @param upstream The upstream location of the archive, which the checksum is fetched for.
+     * @param dir      Where the agent downloads the archive to.
+     * @param name     The file name of the archive.
+     * @return The archive on the agent, which the caller has to delete.
+     */
+    static AgentArchive downloadOnAgent(URI upstream, List<URI> sources, FilePath dir, String name, TaskListener log)
+            throws IOException, InterruptedException {
+        if (sources.isEmpty()) {
+            throw new IOException(Messages.DownloadMirrors_download_none(name));
+        }
+        Downloaded downloaded = dir.act(new AgentDownload(
+                upstream,
+                sources,
+                name,
+                DownloadMirrors.HEDGE_DELAY,
+                DownloadMirrors.HEDGE_BYTES,
+                DownloadMirrors.MIRRORS_ONLY,
+                log));
+        return new AgentArchive(dir.child(downloaded.file()), downloaded.sha256(), downloaded.size());
+    }
+
+    /**
+     * Copies an archive downloaded on an agent to {@code target} on the controller and checks that the copy matches
+     * what the agent downloaded.
+     */
+    static void copyToController(AgentArchive archive, Path target) throws IOException, InterruptedException {
+        Path dir = target.getParent();
+        if (dir == null) {
+            throw new NullPointerException("Parent directory of " + target + " is null");
+        }
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, String.valueOf(target.getFileName()), ".tmp");
+        try {
+            MessageDigest digest = ArchiveChecksum.newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                archive.file().copyTo(out);
+            }
+            String actual = ArchiveChecksum.toHex(digest);
+            if (!actual.equals(archive.sha256())) {
+                throw new IOException(
+                        Messages.ArchiveDownloader_download_checksumMismatch(archive.file(), archive.sha256(), actual));
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * An archive downloaded on an agent.
+     *
+     * @param file   The archive on the agent.
+     * @param sha256 The checksum of the archive, which matches the published one if there is one.
+     * @param size   The size of the archive in bytes.
+     */
+    record AgentArchive(FilePath file, String sha256, long size) {}
+
+    /**
+     * @param file   The name of the downloaded file on the agent.
+     * @param sha256 The checksum of the downloaded file.
+     * @param size   The size of the downloaded file in bytes.
+     */
+    private record Downloaded(String file, String sha256, long size) implements Serializable {}
+
+    private static final class AgentDownload extends MasterToSlaveFileCallable<Downloaded> {
+        private static final long serialVersionUID = 1L;
+
+        private final URI upstream;
+        private final List<URI> sources;
+        private final String name;
+        private final long hedgeDelay;
+        private final long hedgeBytes;
+        private final boolean mirrorsOnly;
+        private final TaskListener log;
+
+        AgentDownload(
+                URI upstream,
+                List<URI> sources,
+                String name,
+                long hedgeDelay,
+                long hedgeBytes,
+                boolean mirrorsOnly,
+                TaskListener log) {
+            this.upstream = upstream;
+            this.sources = new ArrayList<>(sources);
+            this.name = name;
+            this.hedgeDelay = hedgeDelay;
+            this.hedgeBytes = hedgeBytes;
+            this.mirrorsOnly = mirrorsOnly;
+            this.log = log;
+        }
+
+        @Override
+        public Downloaded invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Files.createDirectories(f.toPath());
+            String published = published();
+            return DownloadMirrors.hedged(
+                    sources,
+                    hedgeDelay,
+                    hedgeBytes,
+                    log,
+                    (source, attempt) -> download(f.toPath(), source, published, attempt));
+        }
+
+        private Downloaded download(
+                Path dir, URI source, @CheckForNull String published, @CheckForNull DownloadMirrors.Attempt attempt)
+                throws IOException {
+            log.getLogger().println(Messages.ArchiveDownloader_downloadOnAgent_started(source));
+            Path tmp = Files.createTempFile(dir, name, ".tmp");
+            boolean downloaded = false;
+            try {
+                MessageDigest digest = ArchiveChecksum.newDigest();
+                try (InputStream in = new DigestInputStream(new CacheEndpoint.Download(source, name), digest)) {
+                    Files.copy(attempt != null ? attempt.count(in) : in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                String actual = ArchiveChecksum.toHex(digest);
+                if (published != null && !published.equals(actual)) {
+                    throw new IOException(
+                            Messages.ArchiveDownloader_download_checksumMismatch(source, published, actual));
+                }
+                if (attempt != null) {
+                    attempt.win();
+                }
+                downloaded = true;
+                return new Downloaded(String.valueOf(tmp.getFileName()), actual, Files.size(tmp));
+            } finally {
+                if (!downloaded) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+
+        /**
+         * Fetches the checksum published upstream like {@link ArchiveChecksum#fetch(URI, TaskListener)}, through the
+         * network settings of the agent.
+         */
+        @CheckForNull
+        private String published() throws IOException {
+            URI source = ArchiveChecksum.location(upstream);
+            int status;
+            String body = "";
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) source.toURL().openConnection();
+                connection.setConnectTimeout(TIMEOUT);
+                connection.setReadTimeout(TIMEOUT);
+                status = connection.getResponseCode();
+                if (status == 200) {
+                    try (InputStream in = connection.getInputStream()) {
+                        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                }
+            } catch (IOException e) {
+                return ArchiveChecksum.unreachable(source, e, mirrorsOnly, log);
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+            return ArchiveChecksum.published(source, status, body, log);
+        }
+    }
+
+    private static void discard(Path target) throws IOException {
+        Files.deleteIfExists(sibling(target, PART));
+        Files.deleteIfExists(sibling(target, CHUNKS));
+    }
+
+    private static Path sibling(Path target, String suffix) {
+        return target.resolveSibling(target.getFileName() + suffix);
+    }
+
+    /**
+     * @param source    The URL the download was requested for.
+     * @param location  The URL the archive is served from after redirects.
+     * @param length    The length of the archive in bytes.
+     * @param validator Entity tag or modification date of the archive, {@code null} if the server sent neither.
+     */
+    private record Client(@CheckForNull ProxyConfiguration proxy, HttpClient client) {}
+
+    private record Remote(URI source, URI location, long length, String validator) {}
+
+    /**
+     * A download in progress, with the chunks that are already written.
+     */
+    private static final class Partial {
+        final Path part;
+        final Path progress;
+        final Remote remote;
+        final int chunkSize;
+        private final BitSet done;
+
+        private Partial(Path target, Remote remote, int chunkSize, BitSet done) {
+            this.part = sibling(target, PART);
+            this.progress = sibling(target, CHUNKS);
+            this.remote = remote;
+            this.chunkSize = chunkSize;
+            this.done = done;
+        }
+
+        /**
+         * Continues the previous download of the same archive, or starts over if there is none or the archive has
+         * changed since.
+         */
+        static Partial open(Path target, Remote remote, int chunkSize) throws IOException {
+            Partial partial = new Partial(target, remote, chunkSize, new BitSet());
+            if (Files.isRegularFile(partial.progress) && Files.isRegularFile(partial.part)) {
+                Properties state = new Properties();
+                try (InputStream in = Files.newInputStream(partial.progress)) {
+                    state.load(in);
+                }
+                if (String.valueOf(remote.length()).equals(state.getProperty("length"))
+                        && String.valueOf(chunkSize).equals(state.getProperty("chunkSize"))
+                        && String.valueOf(remote.validator()).equals(state.getProperty("validator"))
+                        && Files.size(partial.part) == remote.length()) {
+                    for (String chunk : state.getProperty("done", "").split(",")) {
+                        if (!chunk.isEmpty()) {
+                            partial.done.set(Integer.parseInt(chunk));
+                        }
+                    }
+                    return partial;
+                }
+            }
+            discard(target);
+            try (FileChannel fc =
+                    FileChannel.open(partial.part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                fc.write(ByteBuffer.allocate(1), remote.length() - 1);
+            }
+            partial.save();
+            return partial;
+        }
+
+        int chunks() {
+            return (int) ((remote.length() + chunkSize - 1) / chunkSize);
+        }
+
+        synchronized boolean isDone(int chunk) {
+            return done.get(chunk);
+        }
+
+        synchronized void done(int chunk) throws IOException {
+            done.set(chunk);
+            save();
+        }
+
+        /**
+         * Records the written chunks. The record is replaced atomically, so a crash never leaves it half written.
+         */
+        private void save() throws IOException {
+            Properties state = new Properties();
+            state.setProperty("length", String.valueOf(remote.length()));
+            state.setProperty("chunkSize", String.valueOf(chunkSize));
+            state.setProperty("validator", String.valueOf(remote.validator()));
+            state.setProperty("done", done.stream().mapToObj(String::valueOf).collect(Collectors.joining(",")));
+            Path tmp = Files.createTempFile(
+                    this.progress.getParent(), String.valueOf(this.progress.getFileName()), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    state.store(out, null);
+                }
+                Files.move(tmp, this.progress, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * The checksum of a ranged download, computed while it is downloaded instead of reading the archive again.
+     * <p>
+     * The chunks are digested in the order of their offsets. The chunk at the current offset is digested while it is
+     * downloaded. Chunks that were downloaded ahead of it, or by a previous attempt that is resumed, are read back from
+     * the file once the current offset reaches them.
+     */
+    private static final class RunningDigest {
+        private final MessageDigest digest = ArchiveChecksum.newDigest();
+        private final Partial partial;
+        private final FileChannel file;
+
+        /**
+         * The first chunk that is not digested yet.
+         */
+        private int next;
+
+        /**
+         * Whether {@link #next} is being downloaded into the digest.
+         */
+        private boolean streaming;
+
+        RunningDigest(Partial partial, FileChannel file) {
+            this.partial = partial;
+            this.file = file;
+        }
+
+        /**
+         * @return The digest to download the chunk into, {@code null} if the chunk is not at the current offset.
+         */
+        @CheckForNull
+        synchronized MessageDigest claim(int chunk) {
+            if (chunk != next || streaming) {
+                return null;
+            }
+            streaming = true;
+            return digest;
+        }
+
+        /**
+         * Digests the written chunks at the current offset, after a chunk was written.
+         *
+         * @param streamed Whether the written chunk was {@linkplain #claim(int) claimed} and downloaded into the
+         *                 digest.
+         */
+        synchronized void advance(boolean streamed) throws IOException {
+            if (streamed) {
+                streaming = false;
+                next++;
+            }
+            if (streaming) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (next < partial.chunks() && partial.isDone(next)) {
+                long position = (long) next * partial.chunkSize;
+                long end = Math.min(position + partial.chunkSize, partial.remote.length());
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    int n = file.read(buffer, position);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of " + partial.part);
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    position += n;
+                }
+                next++;
+            }
+        }
+
+        /**
+         * @return The checksum of the archive, once all chunks are written.
+         */
+        synchronized String finish() throws IOException {
+            advance(false);
+            if (next != partial.chunks()) {
+                throw new IllegalStateException("Chunk " + next + " of " + partial.part + " is missing");
+            }
+            return ArchiveChecksum.toHex(digest);
+        }
+    }
+
+    /**
+     * The server answered a range request with the whole archive, because it changed or ranges are not supported.
+     */
+    private static final class RangeIgnoredException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,350 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import jenkins.security.HMACConfidentialKey;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+/**
+ * Serves the archives of the controller cache over HTTP, so that agents can download them directly instead of
+ * through the remoting channel.
+ * <p>
+ * Agents do not have credentials of their own, so every URL carries an expiry and a MAC over the archive and the
+ * expiry, and only grants access to that archive until it expires. Single byte ranges are supported, so that an
+ * interrupted download continues where it stopped. Every response leases its archive, so that the archive is not
+ * evicted while it is served.
+ * <p>
+ * Agents use the endpoint if it is enabled and {@link TransferStrategy#CACHE_HTTP} is configured.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class CacheEndpoint implements UnprotectedRootAction {
+
+    static final String URL_NAME = "adoptopenjdk-cache";
+
+    /**
+     * Whether agents download archives from the controller cache over HTTP.
+     */
+    static boolean ENABLED = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".cache.http");
+
+    /**
+     * How long a URL handed to an agent stays valid.
+     */
+    private static final long VALIDITY = TimeUnit.HOURS.toMillis(1);
+
+    private static final HMACConfidentialKey KEY = new HMACConfidentialKey(CacheEndpoint.class, "token");
+
+    private static final Pattern PATH = Pattern.compile("/(\\d+)/([0-9a-f]+)/(.+)");
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    @CheckForNull
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @CheckForNull
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * The URL an agent downloads a cached archive from.
+     *
+     * @return The URL, {@code null} if downloads over HTTP are disabled or the root URL of Jenkins is not known.
+     */
+    @CheckForNull
+    static URI uri(File archive) {
+        String rootUrl = Jenkins.get().getRootUrl();
+        if (!ENABLED || rootUrl == null) {
+            return null;
+        }
+        String path = relativePath(archive);
+        if (path == null) {
+            return null;
+        }
+        long expires = System.currentTimeMillis() + VALIDITY;
+        StringBuilder uri = new StringBuilder(rootUrl)
+                .append(URL_NAME)
+                .append('/')
+                .append(expires)
+                .append('/')
+                .append(KEY.mac(expires + "/" + path));
+        for (String segment : path.split("/")) {
+            uri.append('/')
+                    .append(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return URI.create(uri.toString());
+    }
+
+    /**
+     * @return The path of the archive inside the cache, {@code null} if it is not in the cache.
+     */
+    @CheckForNull
+    static String relativePath(File archive) {
+        Path root = root();
+        Path file = archive.toPath().toAbsolutePath().normalize();
+        return file.startsWith(root) ? root.relativize(file).toString().replace(File.separatorChar, '/') : null;
+    }
+
+    private static Path root() {
+        return new File(Jenkins.get().getRootDir(), ArchiveCache.ROOT)
+                .toPath()
+                .toAbsolutePath()
+                .normalize();
+    }
+
+    /**
+     * Serves an archive. The MAC is checked against the path exactly as Stapler decoded it, which is the path
+     * {@link #uri(File)} signed.
+     */
+    public void doDynamic(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+        Matcher m = ENABLED ? PATH.matcher(req.getRestOfPath()) : null;
+        if (m == null || !m.matches()) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String path = m.group(3);
+        long expires;
+        try {
+            expires = Long.parseLong(m.group(1));
+        } catch (NumberFormatException e) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (expires < System.currentTimeMillis() || !KEY.checkMac(expires + "/" + path, m.group(2))) {
+            rsp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        Path root = root();
+        Path file = root.resolve(path).normalize();
+        // the lease keeps the archive from being evicted or removed while it is served
+        ArchiveCache.Lease lease = file.startsWith(root) ? ArchiveCache.get().hold(file.toFile()) : null;
+        if (lease == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (lease;
+                FileChannel fc = FileChannel.open(file)) {
+            long length = fc.size();
+            long from = 0;
+            long to = length - 1;
+            String range = req.getHeader("Range");
+            Matcher r = range == null ? null : RANGE.matcher(range.trim());
+            if (r != null && r.matches() && !(r.group(1).isEmpty() && r.group(2).isEmpty())) {
+                if (r.group(1).isEmpty()) {
+                    from = Math.max(0, length - Long.parseLong(r.group(2)));
+                } else {
+                    from = Long.parseLong(r.group(1));
+                    if (!r.group(2).isEmpty()) {
+                        to = Math.min(to, Long.parseLong(r.group(2)));
+                    }
+                }
+                if (from > to) {
+                    rsp.setHeader("Content-Range", "bytes */" + length);
+                    rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                rsp.setHeader("Content-Range", "bytes " + from + "-" + to + "/" + length);
+            }
+            rsp.setHeader("Accept-Ranges", "bytes");
+            rsp.setContentType("application/octet-stream");
+            rsp.setContentLengthLong(to - from + 1);
+            if ("HEAD".equals(req.getMethod())) {
+                return;
+            }
+            try (OutputStream out = rsp.getOutputStream()) {
+                if (InstallThrottle.get().limitsBandwidth()) {
+                    fc.position(from);
+                    try (InputStream in = InstallThrottle.get()
+                            .throttle(BoundedInputStream.builder()
+                                    .setInputStream(Channels.newInputStream(fc))
+                                    .setMaxCount(to - from + 1)
+                                    .get())) {
+                        in.transferTo(out);
+                    }
+                } else {
+                    transfer(fc, from, to + 1, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a range of the file without reading it into the heap, which lets the JDK hand the copy to the
+     * operating system if the servlet container exposes its connection as a channel.
+     */
+    private static void transfer(FileChannel fc, long from, long end, OutputStream out) throws IOException {
+        WritableByteChannel target = out instanceof WritableByteChannel channel ? channel : Channels.newChannel(out);
+        long position = from;
+        while (position < end) {
+            long n = fc.transferTo(position, end - position, target);
+            if (n <= 0) {
+                throw new EOFException(); // the file was truncated while it was served
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Reads an archive on the agent, from the controller cache or another HTTP server. A connection that fails while
+     * reading is opened again for the remaining bytes. Closing the stream disconnects it, also from another thread
+     * while a read blocks.
+     */
+    static final class Download extends InputStream implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private static final int ATTEMPTS = 3;
+
+        private static final int TIMEOUT = (int) TimeUnit.MINUTES.toMillis(1);
+
+        private final URI uri;
+        private final String name;
+        private transient InputStream in;
+        private transient volatile HttpURLConnection connection;
+        private transient volatile boolean closed;
+        private transient long position;
+        private transient long length;
+
+        /**
+         * @param name The file name of the archive, for messages.
+         */
+        Download(URI uri, String name) {
+            this.uri = uri;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            for (int attempt = 1; ; attempt++) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                try {
+                    if (in == null) {
+                        open();
+                    }
+                    int n = in.read(b, off, len);
+                    if (n < 0 && position < length) {
+                        throw new EOFException(Messages.CacheEndpoint_Download_truncated(name, position, length));
+                    }
+                    if (n > 0) {
+                        position += n;
+                    }
+                    return n;
+                } catch (IOException e) {
+                    reset();
+                    if (closed || attempt >= ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            this.connection = connection;
+            if (closed) {
+                throw new IOException("Stream closed"); // closed while connecting
+            }
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            if (position > 0) {
+                connection.setRequestProperty("Range", "bytes=" + position + "-");
+            }
+            int status = connection.getResponseCode();
+            if (status != (position > 0 ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK)) {
+                connection.disconnect();
+                throw new IOException(Messages.CacheEndpoint_Download_failed(name, status));
+            }
+            if (position == 0) {
+                length = connection.getContentLengthLong();
+            }
+            in = connection.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            HttpURLConnection current = connection;
+            if (current != null) {
+                current.disconnect();
+            }
+        }
+
+        private void reset() throws IOException {
+            connection = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } finally {
+                    in = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.JDK;
+import hudson.model.Node;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.ComputerListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstaller;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Configuration;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.DetectionFailedException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Fills the controller cache ahead of time with every configured release for every platform and CPU
+ * of the connected agents, so that builds do not wait for a cold download.
+ * <p>
+ * Runs periodically, when an agent comes online, when the JDK tool configuration is saved and when the release list
+ * is updated, so that a release that was configured before it was published is fetched once it is.
+ * <p>
+ * Only the full releases are prefetched. Runtime images of installers with modules are out of scope: an image is
+ * linked on an agent of the platform and CPU, so it is created by the first agent that needs it, from the full
+ * release that was prefetched.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class CachePrefetcher extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(CachePrefetcher.class.getName());
+
+    static boolean ENABLED = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".prefetch");
+
+    private static final int THREADS =
+            Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".prefetch.threads", 2);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            THREADS, new NamingThreadFactory(new DaemonThreadFactory(), "CachePrefetcher"));
+
+    /**
+     * Release, platform and CPU combinations that are queued or being downloaded.
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean scanScheduled = new AtomicBoolean();
+
+    /**
+     * Whether the last prefetch failed, so that a controller that cannot download warns once instead of every scan.
+     */
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    public CachePrefetcher() {
+        super("Eclipse Temurin cache prefetch");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (isActive()) {
+            scan(listener);
+        }
+    }
+
+    /**
+     * Schedules a scan soon, coalescing bursts of events such as many agents coming online at once.
+     */
+    void schedule() {
+        if (isActive() && scanScheduled.compareAndSet(false, true)) {
+            Timer.get()
+                    .schedule(
+                            () -> {
+                                scanScheduled.set(false);
+                                try {
+                                    scan(TaskListener.NULL);
+                                } catch (IOException e) {
+                                    LOGGER.log(Level.WARNING, "Failed to prefetch Eclipse Temurin releases", e);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            },
+                            10,
+                            TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Queues the download of every configured release that is missing in the cache.
+     *
+     * @return The queued downloads.
+     */
+    List<Future<?>> scan(TaskListener listener) throws IOException, InterruptedException {
+        List<Future<?>> queued = new ArrayList<>();
+        Set<String> ids = configuredIds();
+        if (ids.isEmpty()) {
+            return queued;
+        }
+        AdoptOpenJDKFamilyList catalog = AdoptOpenJDKInstaller.getAdoptOpenJDKFamilyList();
+        for (Configuration configuration : onlineConfigurations()) {
+            for (String id : ids) {
+                String key = id + "/" + configuration.platform() + "/" + configuration.cpu();
+                if (!pending.add(key)) {
+                    continue;
+                }
+                queued.add(EXECUTOR.submit(() -> {
+                    try {
+                        if (new AdoptOpenJDKInstaller(id).prefetch(catalog, configuration, listener)) {
+                            LOGGER.log(Level.FINE, "Prefetched {0}", key);
+                        }
+                        failing.set(false);
+                    } catch (IOException e) {
+                        if (failing.compareAndSet(false, true)) {
+                            LOGGER.log(
+                                    Level.WARNING,
+                                    "Failed to prefetch " + key
+                                            + ", further failures are only logged once a prefetch succeeded again",
+                                    e);
+                        } else {
+                            LOGGER.log(Level.FINE, "Failed to prefetch " + key, e);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        pending.remove(key);
+                    }
+                }));
+            }
+        }
+        return queued;
+    }
+
+    private static boolean isActive() {
+        return ENABLED && !AdoptOpenJDKInstaller.DISABLE_CACHE && !AdoptOpenJDKInstaller.REPACK_CACHE;
+    }
+
+    private static Set<String> configuredIds() {
+        Set<String> ids = new LinkedHashSet<>();
+        JDK.DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(JDK.DescriptorImpl.class);
+        if (descriptor == null) {
+            return ids;
+        }
+        for (JDK jdk : descriptor.getInstallations()) {
+            InstallSourceProperty isp = jdk.getProperties().get(InstallSourceProperty.class);
+            if (isp == null) {
+                continue;
+            }
+            for (ToolInstaller installer : isp.installers) {
+                if (installer instanceof AdoptOpenJDKInstaller adoptOpenJDKInstaller
+                        && adoptOpenJDKInstaller.id != null) {
+                    ids.add(adoptOpenJDKInstaller.id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Configuration> onlineConfigurations() throws InterruptedException {
+        Set<Configuration> configurations = new LinkedHashSet<>();
+        for (Computer computer : Jenkins.get().getComputers()) {
+            Node node = computer.getNode();
+            if (node == null || computer.getChannel() == null) {
+                continue;
+            }
+            try {
+                configurations.add(Configuration.of(node));
+            } catch (IOException | DetectionFailedException e) {
+                LOGGER.log(Level.FINE, "Skipping " + computer.getName(), e);
+            }
+        }
+        return configurations;
+    }
+
+    /**
+     * Schedules a scan on the prefetcher of this Jenkins, for instance when the release list was updated.
+     */
+    static void scheduleScan() {
+        ExtensionList.lookupSingleton(CachePrefetcher.class).schedule();
+    }
+
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            scheduleScan();
+        }
+    }
+
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof JDK.DescriptorImpl) {
+                scheduleScan();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFamily;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFile;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKRelease;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * Converts the release catalog, as core reads it from the data file of the downloadable, into the catalog model.
+ * <p>
+ * The JSON object is walked directly instead of being bound with {@code JSONObject.toBean}, which looks up the
+ * properties of the model classes by reflection for every object of the catalog. The few values repeated on every
+ * binary, such as operating system, architecture and implementation, are shared instead of being kept once per
+ * binary. Operating system and architecture are resolved to {@link Platform} and {@link CPU} while converting.
+ * Unknown properties are ignored.
+ */
+final class CatalogReader {
+
+    private final Map<String, String> strings = new HashMap<>();
+
+    private CatalogReader() {}
+
+    /**
+     * Converts a catalog in the order of the data file.
+     *
+     * @throws IOException If a property of the catalog does not have the expected type.
+     */
+    static AdoptOpenJDKFamilyList read(JSONObject json) throws IOException {
+        CatalogReader reader = new CatalogReader();
+        AdoptOpenJDKFamilyList list = new AdoptOpenJDKFamilyList();
+        list.data = reader.array(json, "data", reader::family, AdoptOpenJDKFamily[]::new);
+        Object version = json.opt("version");
+        if (version instanceof Integer v) {
+            list.version = v;
+        } else if (!isNull(version)) {
+            throw malformed("version");
+        }
+        return list;
+    }
+
+    private AdoptOpenJDKFamily family(JSONObject json) throws IOException {
+        AdoptOpenJDKFamily family = new AdoptOpenJDKFamily();
+        family.name = string(json, "name");
+        family.releases = array(json, "releases", this::release, AdoptOpenJDKRelease[]::new);
+        return family;
+    }
+
+    private AdoptOpenJDKRelease release(JSONObject json) throws IOException {
+        AdoptOpenJDKRelease release = new AdoptOpenJDKRelease();
+        release.binaries = array(json, "binaries", this::file, AdoptOpenJDKFile[]::new);
+        release.release_name = string(json, "release_name");
+        release.openjdk_impl = intern(string(json, "openjdk_impl"));
+        return release;
+    }
+
+    private AdoptOpenJDKFile file(JSONObject json) throws IOException {
+        AdoptOpenJDKFile file = new AdoptOpenJDKFile();
+        String architecture = string(json, "architecture");
+        file.cpu = CPU.of(architecture);
+        file.architecture = file.cpu != null ? file.cpu.adoptiumName : intern(architecture);
+        String os = string(json, "os");
+        file.platform = Platform.of(os);
+        file.os = file.platform != null ? file.platform.getId() : intern(os);
+        file.openjdk_impl = intern(string(json, "openjdk_impl"));
+        file.binary_link = string(json, "binary_link");
+        return file;
+    }
+
+    @CheckForNull
+    private String intern(@CheckForNull String s) {
+        return s == null ? null : strings.computeIfAbsent(s, k -> k);
+    }
+
+    @FunctionalInterface
+    private interface Element<T> {
+        T read(JSONObject json) throws IOException;
+    }
+
+    /**
+     * @return The elements of an array property, none if the property is missing or {@code null}.
+     */
+    private static <T> T[] array(JSONObject json, String name, Element<T> element, IntFunction<T[]> newArray)
+            throws IOException {
+        Object value = json.opt(name);
+        if (isNull(value)) {
+            return newArray.apply(0);
+        }
+        if (!(value instanceof JSONArray array)) {
+            throw malformed(name);
+        }
+        T[] elements = newArray.apply(array.size());
+        for (int i = 0; i < elements.length; i++) {
+            if (!(array.get(i) instanceof JSONObject object) || object.isNullObject()) {
+                throw malformed(name);
+            }
+            elements[i] = element.read(object);
+        }
+        return elements;
+    }
+
+    @CheckForNull
+    private static String string(JSONObject json, String name) throws IOException {
+        Object value = json.opt(name);
+        if (value instanceof String s) {
+            return s;
+        }
+        if (!isNull(value)) {
+            throw malformed(name);
+        }
+        return null;
+    }
+
+    private static boolean isNull(@CheckForNull Object value) {
+        return value == null || value instanceof JSONNull;
+    }
+
+    private static IOException malformed(String name) {
+        return new IOException(Messages.CatalogReader_malformed(name));
+    }
+}
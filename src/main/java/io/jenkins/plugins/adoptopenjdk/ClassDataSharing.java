@@ -0,0 +1,164 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Creates the default class data sharing archive of an installation that does not ship one, so that every JVM
+ * started from it maps the core classes instead of loading them.
+ * <p>
+ * Releases from Java 12 on contain the archive already, for Java 9 to 11 it is created with {@code -Xshare:dump}.
+ * Java 8 only uses the archive with the client VM and is skipped. The result is recorded in the marker file, so the
+ * step runs once per installation.
+ */
+final class ClassDataSharing {
+
+    static boolean ENABLED = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".install.cds");
+
+    /**
+     * Minutes {@code -Xshare:dump} may take.
+     */
+    private static final long TIMEOUT = 5;
+
+    private static final String ATTRIBUTE = "cds=";
+
+    static final String CREATED = "created";
+    static final String PRESENT = "present";
+    static final String UNSUPPORTED = "unsupported";
+    static final String FAILED = "failed";
+
+    private ClassDataSharing() {}
+
+    /**
+     * Whether the lines of a marker file lack the result of this step.
+     */
+    static boolean isPending(List<String> marker) {
+        return marker.stream().noneMatch(line -> line.startsWith(ATTRIBUTE));
+    }
+
+    /**
+     * Creates the archive of an installation unless it is disabled or was attempted before.
+     */
+    static void generate(FilePath home, Platform p, TaskListener log) throws IOException, InterruptedException {
+        if (!ENABLED) {
+            return;
+        }
+        String result = home.act(new Generate(p != Platform.AIX && p != Platform.SOLARIS));
+        if (CREATED.equals(result)) {
+            log.getLogger().println(Messages.ClassDataSharing_generate_created(home));
+        } else if (FAILED.equals(result)) {
+            log.getLogger().println(Messages.ClassDataSharing_generate_failed(home));
+        }
+    }
+
+    private static final class Generate extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean platformSupported;
+
+        Generate(boolean platformSupported) {
+            this.platformSupported = platformSupported;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path home = f.toPath();
+            Path marker = home.resolve(".installedByJenkins");
+            if (!Files.isRegularFile(marker) || !isPending(Files.readAllLines(marker, Charset.defaultCharset()))) {
+                return null;
+            }
+            String result = create(home);
+            Files.writeString(marker, ATTRIBUTE + result + "\n", Charset.defaultCharset(), StandardOpenOption.APPEND);
+            return result;
+        }
+
+        private String create(Path home) throws IOException, InterruptedException {
+            Path java = home.resolve(Files.exists(home.resolve("bin/java.exe")) ? "bin/java.exe" : "bin/java");
+            if (!platformSupported || !Files.isExecutable(java) || featureVersion(home) < 9) {
+                return UNSUPPORTED;
+            }
+            if (hasArchive(home)) {
+                return PRESENT;
+            }
+            Process process = new ProcessBuilder(java.toString(), "-Xshare:dump")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try {
+                if (!process.waitFor(TIMEOUT, TimeUnit.MINUTES)) {
+                    return FAILED;
+                }
+            } finally {
+                process.destroyForcibly();
+            }
+            return process.exitValue() == 0 && hasArchive(home) ? CREATED : FAILED;
+        }
+
+        /**
+         * Reads the feature version from the {@code release} file, {@code 8} for {@code 1.8.0_x}.
+         */
+        private static int featureVersion(Path home) throws IOException {
+            Path release = home.resolve("release");
+            if (!Files.isRegularFile(release)) {
+                return 0;
+            }
+            Properties properties = new Properties();
+            try (BufferedReader reader = Files.newBufferedReader(release, Charset.defaultCharset())) {
+                properties.load(reader);
+            }
+            String version = properties.getProperty("JAVA_VERSION", "").replace("\"", "");
+            String[] parts = version.split("[._+-]");
+            try {
+                int first = Integer.parseInt(parts[0]);
+                return first == 1 && parts.length > 1 ? Integer.parseInt(parts[1]) : first;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static boolean hasArchive(Path home) {
+            // lib/server on Linux and macOS, bin/server on Windows
+            return Files.isRegularFile(home.resolve("lib/server/classes.jsa"))
+                    || Files.isRegularFile(home.resolve("bin/server/classes.jsa"));
+        }
+    }
+}
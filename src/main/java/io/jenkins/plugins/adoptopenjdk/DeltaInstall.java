@@ -0,0 +1,363 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Installs a release by transferring only the files that no other installed release on the agent already has.
+ * <p>
+ * The controller keeps a manifest with the SHA-256 of every file next to each cached archive, and every release
+ * installed side by side on an agent keeps a manifest of its files. When a new release is installed, the agent
+ * reports the files it has, the controller streams an archive with the remaining files, and the agent hardlinks the
+ * unchanged files from the release they are in. Files that were changed after their installation are not reused.
+ */
+final class DeltaInstall {
+
+    static boolean ENABLED = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".install.delta");
+
+    static final String MANIFEST = ".manifest";
+
+    /**
+     * Locks of the manifests being computed, by manifest file.
+     */
+    private static final ConcurrentMap<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private DeltaInstall() {}
+
+    /**
+     * A file of a release.
+     *
+     * @param sha256 The checksum of the content.
+     * @param size   The size in bytes.
+     * @param path   The path of the file in the archive, or in the installation for an agent manifest.
+     */
+    record Entry(String sha256, long size, String path) implements Serializable {
+
+        static Entry parse(String line) throws IOException {
+            String[] fields = line.split(" ", 3);
+            if (fields.length != 3) {
+                throw new IOException("Malformed manifest line: " + line);
+            }
+            try {
+                return new Entry(fields[0], Long.parseLong(fields[1]), fields[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed manifest line: " + line, e);
+            }
+        }
+
+        String format() {
+            return sha256 + " " + size + " " + path;
+        }
+    }
+
+    /**
+     * Returns the manifest of a cached tar or zip archive, computing it on first use.
+     * Concurrent callers for the same archive wait for a single computation, other archives are not held up.
+     */
+    static List<Entry> manifest(File archive) throws IOException {
+        Path file = archive.toPath().resolveSibling(archive.getName() + MANIFEST);
+        if (Files.isRegularFile(file)) {
+            return read(file);
+        }
+        synchronized (LOCKS.computeIfAbsent(file, k -> new Object())) {
+            if (Files.isRegularFile(file)) {
+                return read(file);
+            }
+            return compute(archive, file);
+        }
+    }
+
+    /**
+     * Returns the manifest of an archive on an agent, like one the agent downloaded from upstream itself.
+     */
+    static List<Entry> manifest(FilePath archive, boolean zip) throws IOException, InterruptedException {
+        return archive.act(new Compute(zip));
+    }
+
+    private static List<Entry> compute(File archive, Path file) throws IOException {
+        List<Entry> entries = entries(archive, AdoptOpenJDKInstaller.isZip(archive.getName()));
+        Path tmp = Files.createTempFile(file.getParent(), String.valueOf(file.getFileName()), ".tmp");
+        try {
+            write(tmp, entries);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return entries;
+    }
+
+    private static List<Entry> entries(File archive, boolean zip) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (zip) {
+            try (ZipFile file = ZipFile.builder().setFile(archive).get()) {
+                for (ZipArchiveEntry entry : Collections.list(file.getEntries())) {
+                    if (!entry.isDirectory() && !entry.isUnixSymlink()) {
+                        MessageDigest digest = ArchiveChecksum.newDigest();
+                        try (InputStream in = new DigestInputStream(file.getInputStream(entry), digest)) {
+                            IOUtils.consume(in);
+                        }
+                        entries.add(new Entry(ArchiveChecksum.toHex(digest), entry.getSize(), entry.getName()));
+                    }
+                }
+            }
+        } else {
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(
+                    new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive.toPath()))))) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextEntry()) != null) {
+                    if (entry.isFile()) {
+                        MessageDigest digest = ArchiveChecksum.newDigest();
+                        IOUtils.consume(new DigestInputStream(tar, digest));
+                        entries.add(new Entry(ArchiveChecksum.toHex(digest), entry.getSize(), entry.getName()));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Lists the unchanged files of the other releases installed next to {@code target}.
+     *
+     * @return The absolute path on the agent of a file for each checksum.
+     */
+    static Map<String, String> inventory(FilePath target) throws IOException, InterruptedException {
+        FilePath versions = target.getParent();
+        return versions == null ? Map.of() : versions.act(new Inventory(target.getName()));
+    }
+
+    /**
+     * Extracts a tar archive into {@code target}, transferring only the files that are not in {@code unchanged}.
+     *
+     * @param archive   The archive, read to its end.
+     * @param manifest  The manifest of the archive.
+     * @param unchanged The files available on the agent, by checksum.
+     */
+    static void extract(
+            InputStream archive, List<Entry> manifest, Map<String, String> unchanged, FilePath target, TaskListener log)
+            throws IOException, InterruptedException {
+        Map<String, String> checksums = new HashMap<>();
+        for (Entry entry : manifest) {
+            checksums.put(entry.path(), entry.sha256());
+        }
+        List<Link> links = new ArrayList<>();
+        int transferred = 0;
+        Path delta = Files.createTempFile("adoptopenjdk-delta", ".tar.gz");
+        try {
+            try (TarArchiveInputStream in = new TarArchiveInputStream(new GZIPInputStream(archive));
+                    TarArchiveOutputStream out =
+                            new TarArchiveOutputStream(new GZIPOutputStream(Files.newOutputStream(delta)))) {
+                out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                TarArchiveEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    String source = entry.isFile() ? unchanged.get(checksums.get(entry.getName())) : null;
+                    if (source != null) {
+                        links.add(new Link(entry.getName(), source));
+                        continue;
+                    }
+                    out.putArchiveEntry(entry);
+                    if (entry.isFile()) {
+                        IOUtils.copy(in, out);
+                        transferred++;
+                    }
+                    out.closeArchiveEntry();
+                }
+                out.finish();
+                IOUtils.consume(archive);
+            }
+            try (InputStream in = InstallThrottle.get().throttle(Files.newInputStream(delta))) {
+                ParallelExtractor.untar(target, in);
+            }
+        } finally {
+            Files.deleteIfExists(delta);
+        }
+        target.act(new LinkUnchanged(links));
+        log.getLogger().println(Messages.DeltaInstall_extract_summary(transferred, links.size()));
+    }
+
+    /**
+     * Writes the manifest of an installation, with the paths the files have after the pull up of {@code base}.
+     */
+    static void writeManifest(FilePath target, FilePath base, List<Entry> manifest)
+            throws IOException, InterruptedException {
+        String prefix = base == null || base.equals(target)
+                ? ""
+                : base.getRemote().substring(target.getRemote().length() + 1).replace('\\', '/') + "/";
+        StringBuilder content = new StringBuilder();
+        for (Entry entry : manifest) {
+            String path = entry.path().startsWith(prefix) ? entry.path().substring(prefix.length()) : entry.path();
+            content.append(new Entry(entry.sha256(), entry.size(), path).format())
+                    .append('\n');
+        }
+        target.child(MANIFEST).write(content.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    static List<Entry> read(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    entries.add(Entry.parse(line));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void write(Path file, List<Entry> entries) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries) {
+                writer.write(entry.format());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @param path   The path of the file in the archive.
+     * @param source The absolute path of an identical file on the agent.
+     */
+    private record Link(String path, String source) implements Serializable {}
+
+    private static final class Compute extends MasterToSlaveFileCallable<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean zip;
+
+        Compute(boolean zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        public List<Entry> invoke(File f, VirtualChannel channel) throws IOException {
+            return entries(f, zip);
+        }
+    }
+
+    private static final class Inventory extends MasterToSlaveFileCallable<Map<String, String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String exclude;
+
+        Inventory(String exclude) {
+            this.exclude = exclude;
+        }
+
+        @Override
+        public Map<String, String> invoke(File f, VirtualChannel channel) throws IOException {
+            Map<String, String> files = new HashMap<>();
+            if (!f.isDirectory()) {
+                return files;
+            }
+            try (DirectoryStream<Path> releases = Files.newDirectoryStream(f.toPath())) {
+                for (Path release : releases) {
+                    Path manifest = release.resolve(MANIFEST);
+                    if (release.getFileName().toString().equals(exclude) || !Files.isRegularFile(manifest)) {
+                        continue;
+                    }
+                    long written = Files.getLastModifiedTime(manifest).toMillis();
+                    for (Entry entry : read(manifest)) {
+                        Path file = release.resolve(entry.path());
+                        if (!files.containsKey(entry.sha256())
+                                && Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)
+                                && Files.size(file) == entry.size()
+                                && Files.getLastModifiedTime(file).toMillis() <= written) {
+                            files.put(entry.sha256(), file.toString());
+                        }
+                    }
+                }
+            }
+            return files;
+        }
+    }
+
+    private static final class LinkUnchanged extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Link> links;
+
+        LinkUnchanged(List<Link> links) {
+            this.links = links;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            Path root = f.toPath().toAbsolutePath().normalize();
+            for (Link link : links) {
+                Path file = root.resolve(link.path()).normalize();
+                if (!file.startsWith(root)) {
+                    throw new IOException("Refusing to link outside of " + root + ": " + link.path());
+                }
+                Path source = Path.of(link.source());
+                Files.createDirectories(file.getParent());
+                try {
+                    Files.createLink(file, source);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // another file system or no hardlink support
+                    Files.copy(source, file, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+            return null;
+        }
+    }
+}
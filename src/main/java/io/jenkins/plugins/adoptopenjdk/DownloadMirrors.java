@@ -0,0 +1,364 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mirrors to download release archives from instead of, or before, the {@code binary_link} of the catalog.
+ * <p>
+ * Each mirror is either a rewrite rule {@code <prefix>=<replacement>}, applied to links starting with the prefix,
+ * or a base URL that replaces the scheme, host and port of every link and keeps its path. Mirrors are tried in the
+ * order they are configured, followed by the upstream link unless only mirrors are allowed.
+ * <p>
+ * Downloads can be hedged: if a source has not delivered a number of bytes after a delay, the next source is
+ * downloaded at the same time, and the first download to complete is used while the others are cancelled. A
+ * cancelled download is interrupted and its stream is closed, as a blocking read of a {@link java.net.URLConnection}
+ * does not notice the interrupt.
+ */
+final class DownloadMirrors {
+
+    private static final Logger LOGGER = Logger.getLogger(DownloadMirrors.class.getName());
+
+    /**
+     * Mirrors separated by whitespace or commas, {@code null} to download from upstream only.
+     */
+    @CheckForNull
+    static String MIRRORS = System.getProperty(AdoptOpenJDKInstaller.class.getName() + ".download.mirrors");
+
+    /**
+     * Whether the upstream link must not be used, for sites without access to it.
+     */
+    static boolean MIRRORS_ONLY = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".download.mirrorsOnly");
+
+    /**
+     * Milliseconds to wait for a source before also downloading from the next one, {@code 0} to try the sources
+     * one after the other.
+     */
+    static long HEDGE_DELAY = Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".download.hedge.delay", 0);
+
+    /**
+     * Bytes a source has to deliver within the hedge delay so that no other source is added.
+     */
+    static long HEDGE_BYTES =
+            Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".download.hedge.bytes", 1024 * 1024);
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "DownloadMirrors"));
+
+    private DownloadMirrors() {}
+
+    /**
+     * The locations to download an archive from, in the order they should be tried.
+     *
+     * @param link The {@code binary_link} of the archive in the catalog.
+     * @return The locations, empty if only mirrors are allowed and none applies to the link.
+     */
+    static List<URI> sources(String link) {
+        List<URI> sources = new ArrayList<>();
+        if (MIRRORS != null) {
+            for (String mirror : MIRRORS.trim().split("[\\s,]+")) {
+                String rewritten = rewrite(mirror, link);
+                if (rewritten != null && !sources.contains(URI.create(rewritten))) {
+                    sources.add(URI.create(rewritten));
+                }
+            }
+        }
+        if (!MIRRORS_ONLY && !sources.contains(URI.create(link))) {
+            sources.add(URI.create(link));
+        }
+        return sources;
+    }
+
+    /**
+     * Downloads from the sources of a link in order until one succeeds.
+     *
+     * @param link     The {@code binary_link} of the archive in the catalog.
+     * @param log      Receives a message for each source that failed.
+     * @param download Downloads from one source.
+     * @return The result of the first successful download.
+     * @throws IOException If there is no source or all sources failed, with the failures of the later sources
+     *                     suppressed.
+     */
+    static <T> T download(String link, TaskListener log, Download<T> download)
+            throws IOException, InterruptedException {
+        List<URI> sources = sources(link);
+        if (sources.isEmpty()) {
+            throw new IOException(Messages.DownloadMirrors_download_none(link));
+        }
+        return download(sources, log, download);
+    }
+
+    private static <T> T download(List<URI> sources, TaskListener log, Download<T> download)
+            throws IOException, InterruptedException {
+        IOException failure = null;
+        for (URI source : sources) {
+            try {
+                return download.from(source);
+            } catch (IOException e) {
+                log.getLogger().println(Messages.DownloadMirrors_download_failed(source, e.getMessage()));
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Downloads from the sources of a link, hedging slow sources if a hedge delay is configured and falling back to
+     * {@link #download(String, TaskListener, Download)} otherwise.
+     *
+     * @param link     The {@code binary_link} of the archive in the catalog.
+     * @param log      Receives a message for each source that failed or was hedged.
+     * @param download Downloads from one source, reporting its progress to the attempt if there is one.
+     * @return The result of the first download to complete.
+     * @throws IOException If there is no source or all sources failed, with the failures of the later sources
+     *                     suppressed.
+     */
+    static <T> T hedged(String link, TaskListener log, HedgedDownload<T> download)
+            throws IOException, InterruptedException {
+        List<URI> sources = sources(link);
+        if (sources.isEmpty()) {
+            throw new IOException(Messages.DownloadMirrors_download_none(link));
+        }
+        return hedged(sources, HEDGE_DELAY, HEDGE_BYTES, log, download);
+    }
+
+    /**
+     * Downloads from the given sources, hedging slow sources if a hedge delay is given and trying the sources in
+     * order otherwise. Agents use this with the hedge settings of the controller.
+     *
+     * @param sources The locations to download from, not empty.
+     * @param delay   Milliseconds to wait for a source before also downloading from the next one, {@code 0} to try
+     *                the sources one after the other.
+     * @param bytes   Bytes a source has to deliver within the delay so that no other source is added.
+     * @see #hedged(String, TaskListener, HedgedDownload)
+     */
+    static <T> T hedged(List<URI> sources, long delay, long bytes, TaskListener log, HedgedDownload<T> download)
+            throws IOException, InterruptedException {
+        if (delay <= 0 || sources.size() < 2) {
+            return download(sources, log, source -> download.from(source, null));
+        }
+        AtomicBoolean decided = new AtomicBoolean();
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(EXECUTOR);
+        Map<Future<T>, Attempt> running = new LinkedHashMap<>();
+        Attempt latest = start(completion, running, download, new Attempt(sources.get(0), decided));
+        int next = 1;
+        IOException failure = null;
+        try {
+            while (true) {
+                Future<T> done = completion.poll(delay, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (next < sources.size() && latest.received() < bytes) {
+                        log.getLogger()
+                                .println(Messages.DownloadMirrors_hedged_started(
+                                        latest.source, latest.received(), delay, sources.get(next)));
+                        latest = start(completion, running, download, new Attempt(sources.get(next++), decided));
+                    }
+                    continue;
+                }
+                Attempt attempt = running.remove(done);
+                try {
+                    T result = done.get();
+                    if (!running.isEmpty()) {
+                        log.getLogger().println(Messages.DownloadMirrors_hedged_won(attempt.source, running.size()));
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        continue; // lost to an attempt that is about to be returned
+                    }
+                    IOException cause = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    log.getLogger()
+                            .println(Messages.DownloadMirrors_download_failed(attempt.source, cause.getMessage()));
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+                if (next < sources.size()) {
+                    latest = start(completion, running, download, new Attempt(sources.get(next++), decided));
+                } else if (running.isEmpty()) {
+                    throw failure;
+                }
+            }
+        } finally {
+            running.forEach((future, attempt) -> {
+                future.cancel(true);
+                attempt.cancel();
+            });
+        }
+    }
+
+    private static <T> Attempt start(
+            ExecutorCompletionService<T> completion,
+            Map<Future<T>, Attempt> running,
+            HedgedDownload<T> download,
+            Attempt attempt) {
+        running.put(completion.submit(() -> download.from(attempt.source, attempt)), attempt);
+        return attempt;
+    }
+
+    @FunctionalInterface
+    interface Download<T> {
+        T from(URI source) throws IOException, InterruptedException;
+    }
+
+    @FunctionalInterface
+    interface HedgedDownload<T> {
+        /**
+         * @param attempt The attempt to report the progress to, {@code null} if the download is not hedged.
+         */
+        T from(URI source, @CheckForNull Attempt attempt) throws IOException, InterruptedException;
+    }
+
+    /**
+     * One of several concurrent downloads of the same archive.
+     */
+    static final class Attempt {
+        final URI source;
+        private final AtomicBoolean decided;
+        private final AtomicLong received = new AtomicLong();
+        private volatile boolean cancelled;
+
+        @CheckForNull
+        private volatile Closeable stream;
+
+        Attempt(URI source, AtomicBoolean decided) {
+            this.source = source;
+            this.decided = decided;
+        }
+
+        long received() {
+            return received.get();
+        }
+
+        /**
+         * Counts the bytes read from the stream as progress of this attempt. The stream is closed when the attempt is
+         * cancelled.
+         */
+        InputStream count(InputStream in) throws IOException {
+            stream = in;
+            if (cancelled) {
+                in.close();
+            }
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        received.incrementAndGet();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        received.addAndGet(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Stops this attempt by closing its stream, which ends a read that blocks without noticing interrupts.
+         */
+        void cancel() {
+            cancelled = true;
+            Closeable in = stream;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the download from " + source, e);
+                }
+            }
+        }
+
+        /**
+         * Makes this attempt the one whose download is used. Must be called before the download is made visible.
+         *
+         * @throws CancellationException If another attempt completed first, the download of this attempt has to be
+         *                               discarded.
+         */
+        void win() {
+            if (!decided.compareAndSet(false, true)) {
+                throw new CancellationException(source.toString());
+            }
+        }
+    }
+
+    /**
+     * @return The link rewritten by the mirror, {@code null} if the mirror does not apply to it.
+     */
+    @CheckForNull
+    static String rewrite(String mirror, String link) {
+        if (mirror.isEmpty()) {
+            return null;
+        }
+        int separator = mirror.indexOf('=');
+        if (separator > 0) {
+            String prefix = mirror.substring(0, separator);
+            return link.startsWith(prefix) ? mirror.substring(separator + 1) + link.substring(prefix.length()) : null;
+        }
+        String path = URI.create(link).getRawPath();
+        if (path == null) {
+            return null;
+        }
+        return (mirror.endsWith("/") ? mirror.substring(0, mirror.length() - 1) : mirror) + path;
+    }
+}
@@ -0,0 +1,387 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Exclusive lock on an installation directory, held on the machine the directory lives on.
+ * <p>
+ * Executors of the same agent are serialized by a semaphore in the agent JVM, other processes sharing the
+ * directory (for example a second agent with the same root) by an OS file lock on a sibling {@code .lock} file.
+ * The lock is polled in bounded steps, so the remoting thread of an aborted build never stays blocked for long.
+ * <p>
+ * The controller releases the lock with a separate call. An interrupted build still makes that call, and the agent
+ * releases the locks of a controller whose connection closed, as an agent that reconnects keeps its JVM.
+ * <p>
+ * A lock whose installation directory no longer exists when it is released, because the installation failed or the
+ * directory was cleaned up, removes its {@code .lock} file. Before the file is removed it is marked by a byte, so
+ * that another process that opened it earlier and locks it afterwards knows to lock the file that replaces it.
+ */
+final class InstallLock implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(InstallLock.class.getName());
+
+    private static final long POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final String SUFFIX = ".lock";
+
+    private final FilePath lockFile;
+    private final String owner;
+
+    private InstallLock(FilePath lockFile, String owner) {
+        this.lockFile = lockFile;
+        this.owner = owner;
+    }
+
+    /**
+     * Blocks until the installation directory {@code location} is locked for the caller.
+     *
+     * @param location The installation directory to lock.
+     * @param log      Receives a message if the caller has to wait.
+     * @return The lock, to be closed once the installation is finished.
+     */
+    static InstallLock acquire(FilePath location, TaskListener log) throws IOException, InterruptedException {
+        FilePath lockFile = lockFile(location);
+        String owner = UUID.randomUUID().toString();
+        boolean waiting = false;
+        while (!tryAcquire(lockFile, owner, POLL_MILLIS)) {
+            if (!waiting) {
+                log.getLogger().println(Messages.InstallLock_acquire_waiting(location));
+                waiting = true;
+            }
+        }
+        return new InstallLock(lockFile, owner);
+    }
+
+    /**
+     * Locks the installation directory {@code location} if that is possible without waiting for another holder.
+     *
+     * @return The lock or {@code null} if the directory is locked by someone else.
+     */
+    @CheckForNull
+    static InstallLock tryAcquire(FilePath location) throws IOException, InterruptedException {
+        FilePath lockFile = lockFile(location);
+        String owner = UUID.randomUUID().toString();
+        return tryAcquire(lockFile, owner, 0) ? new InstallLock(lockFile, owner) : null;
+    }
+
+    private static boolean tryAcquire(FilePath lockFile, String owner, long timeoutMillis)
+            throws IOException, InterruptedException {
+        try {
+            return lockFile.act(new TryAcquire(owner, timeoutMillis));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // the agent may still acquire the lock after the call was interrupted
+            try {
+                release(lockFile, owner);
+            } catch (IOException | InterruptedException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static FilePath lockFile(FilePath location) {
+        FilePath parent = location.getParent();
+        if (parent == null) {
+            throw new NullPointerException("Parent directory of " + location + " is null");
+        }
+        return parent.child(location.getName() + SUFFIX);
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        release(lockFile, owner);
+    }
+
+    /**
+     * Releases the lock also when the calling thread was interrupted, for example by an aborted build.
+     */
+    private static void release(FilePath lockFile, String owner) throws IOException, InterruptedException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            lockFile.act(new Release(owner));
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Lock state per lock file, only ever used inside the JVM that owns the file. An entry is removed once nobody
+     * holds or waits for the lock anymore.
+     */
+    static final ConcurrentMap<String, Held> HELD = new ConcurrentHashMap<>();
+
+    static final class Held {
+        final Semaphore semaphore = new Semaphore(1, true);
+
+        /**
+         * Callers that hold the lock or wait for it, only changed while the entry is computed.
+         */
+        int users;
+
+        /**
+         * Owners whose acquire is running, guarded by this entry.
+         */
+        final Set<String> pending = new HashSet<>();
+
+        /**
+         * Pending owners that were released before they acquired the lock, which is released again once they acquire
+         * it. An owner is forgotten when its acquire returns.
+         */
+        final Set<String> abandoned = new HashSet<>();
+
+        String owner;
+        FileChannel channel;
+        FileLock lock;
+        Channel remote;
+        Channel.Listener listener;
+    }
+
+    private static Held use(String path, String owner) {
+        return HELD.compute(path, (k, h) -> {
+            Held held = h != null ? h : new Held();
+            held.users++;
+            synchronized (held) {
+                held.pending.add(owner);
+            }
+            return held;
+        });
+    }
+
+    /**
+     * Ends the acquire of {@code owner}.
+     *
+     * @return Whether the owner was released while it acquired the lock.
+     */
+    private static boolean settle(Held held, String owner) {
+        synchronized (held) {
+            held.pending.remove(owner);
+            return held.abandoned.remove(owner);
+        }
+    }
+
+    private static void unuse(String path, Held held) {
+        HELD.computeIfPresent(path, (k, h) -> h == held && --h.users == 0 ? null : h);
+    }
+
+    /**
+     * Releases the lock held by {@code owner}, or marks the owner as abandoned if it is still acquiring the lock.
+     */
+    private static void release(String path, String owner) throws IOException {
+        Held held = HELD.get(path);
+        if (held == null) {
+            return; // the acquire already returned without the lock
+        }
+        synchronized (held) {
+            if (!owner.equals(held.owner)) {
+                if (held.pending.contains(owner)) {
+                    held.abandoned.add(owner);
+                }
+                return;
+            }
+            if (held.remote != null) {
+                held.remote.removeListener(held.listener);
+            }
+            FileChannel fc = held.channel;
+            FileLock lock = held.lock;
+            held.owner = null;
+            held.channel = null;
+            held.lock = null;
+            held.remote = null;
+            held.listener = null;
+            try {
+                Path file = Path.of(path);
+                String name = String.valueOf(file.getFileName());
+                Path location = file.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+                if (!Files.exists(location, LinkOption.NOFOLLOW_LINKS)) {
+                    remove(file, fc);
+                }
+                lock.release();
+                fc.close();
+            } finally {
+                held.semaphore.release();
+            }
+        }
+        unuse(path, held);
+    }
+
+    /**
+     * Removes a lock file that is still locked by {@code fc}.
+     */
+    private static void remove(Path file, FileChannel fc) throws IOException {
+        fc.write(ByteBuffer.wrap(new byte[] {1}), 0);
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to remove " + file, e);
+            fc.truncate(0); // still the file everybody locks
+        }
+    }
+
+    private static final class TryAcquire extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final String owner;
+        private final long timeoutMillis;
+
+        TryAcquire(String owner, long timeoutMillis) {
+            this.owner = owner;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public Boolean invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            String path = f.getAbsolutePath();
+            Held held = use(path, owner);
+            boolean acquired = false;
+            try {
+                acquired = held.semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                if (!acquired) {
+                    settle(held, owner);
+                    unuse(path, held);
+                }
+            }
+            if (!acquired) {
+                return false;
+            }
+            FileChannel fc = null;
+            boolean locked = false;
+            try {
+                Path file = f.toPath();
+                Path dir = file.getParent();
+                if (dir != null) {
+                    Files.createDirectories(dir);
+                }
+                fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = fc.tryLock();
+                while (lock == null || fc.size() > 0) {
+                    if (lock != null) {
+                        // its holder removed the file after it was opened here, lock the file that replaced it
+                        lock.release();
+                        fc.close();
+                        fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    } else if (System.nanoTime() - deadline > 0) {
+                        return false; // held by another process
+                    } else {
+                        Thread.sleep(100);
+                    }
+                    lock = fc.tryLock();
+                }
+                synchronized (held) {
+                    held.owner = owner;
+                    held.channel = fc;
+                    held.lock = lock;
+                }
+                locked = true;
+            } finally {
+                if (!locked) {
+                    try {
+                        if (fc != null) {
+                            fc.close();
+                        }
+                    } finally {
+                        settle(held, owner);
+                        held.semaphore.release();
+                        unuse(path, held);
+                    }
+                }
+            }
+            if (settle(held, owner)) {
+                release(path, owner);
+                return false;
+            }
+            // the controller cannot release the lock anymore once its connection is closed
+            Channel remote = Channel.current();
+            if (remote != null) {
+                Channel.Listener listener = new Channel.Listener() {
+                    @Override
+                    public void onClosed(Channel c, IOException cause) {
+                        try {
+                            release(path, owner);
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Failed to release " + path, e);
+                        }
+                    }
+                };
+                synchronized (held) {
+                    held.remote = remote;
+                    held.listener = listener;
+                }
+                remote.addListener(listener);
+                if (remote.isClosingOrClosed()) {
+                    release(path, owner);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Release extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String owner;
+
+        Release(String owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            release(f.getAbsolutePath(), owner);
+            return null;
+        }
+    }
+}
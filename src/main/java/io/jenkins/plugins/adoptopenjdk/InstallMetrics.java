@@ -0,0 +1,342 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Configuration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Collects how long the phases of installations take, how many bytes they move and how they use the controller
+ * cache, aggregated per release, platform and CPU.
+ * <p>
+ * An installation is recorded by the thread running it. Code on that thread reports phases and counters through
+ * the static methods, which do nothing when no installation is being recorded, for example while prefetching.
+ */
+final class InstallMetrics {
+
+    private static final InstallMetrics INSTANCE = new InstallMetrics();
+
+    private static final ThreadLocal<Recording> CURRENT = new ThreadLocal<>();
+
+    private final ConcurrentMap<Key, Stats> stats = new ConcurrentHashMap<>();
+
+    static InstallMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts recording an installation on the current thread.
+     *
+     * @return The recording, to be closed once the installation is finished.
+     */
+    Recording start(String id, TaskListener log) {
+        Recording recording = new Recording(this, id, log, CURRENT.get());
+        CURRENT.set(recording);
+        return recording;
+    }
+
+    /**
+     * Starts timing a phase of the installation recorded on the current thread.
+     *
+     * @return The timer, to be closed once the phase is finished.
+     */
+    static Timer time(Phase phase) {
+        Recording recording = CURRENT.get();
+        if (recording == null) {
+            return () -> {};
+        }
+        long start = System.nanoTime();
+        return () -> recording.nanos[phase.ordinal()] += System.nanoTime() - start;
+    }
+
+    static void cacheHit() {
+        Recording recording = CURRENT.get();
+        if (recording != null) {
+            recording.cacheHits++;
+        }
+    }
+
+    static void cacheMiss() {
+        Recording recording = CURRENT.get();
+        if (recording != null) {
+            recording.cacheMisses++;
+        }
+    }
+
+    static void coalescedWait() {
+        Recording recording = CURRENT.get();
+        if (recording != null) {
+            recording.coalescedWaits++;
+        }
+    }
+
+    static void downloaded(long bytes) {
+        Recording recording = CURRENT.get();
+        if (recording != null) {
+            recording.downloaded += bytes;
+        }
+    }
+
+    static void transferred(long bytes) {
+        Recording recording = CURRENT.get();
+        if (recording != null) {
+            recording.transferred += bytes;
+        }
+    }
+
+    /**
+     * The aggregated metrics, one entry per release, platform and CPU, sorted by release.
+     */
+    JSONObject toJSON() {
+        List<Map.Entry<Key, Stats>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort(Map.Entry.comparingByKey(
+                Comparator.comparing(Key::id).thenComparing(Key::platform).thenComparing(Key::cpu)));
+        JSONArray installations = new JSONArray();
+        for (Map.Entry<Key, Stats> entry : entries) {
+            JSONObject o = new JSONObject();
+            o.put("id", entry.getKey().id());
+            o.put("platform", entry.getKey().platform());
+            o.put("cpu", entry.getKey().cpu());
+            entry.getValue().write(o);
+            installations.add(o);
+        }
+        JSONObject o = new JSONObject();
+        o.put("installations", installations);
+        return o;
+    }
+
+    private void add(Recording recording) {
+        stats.computeIfAbsent(new Key(recording.id, recording.platform, recording.cpu), k -> new Stats())
+                .add(recording);
+    }
+
+    enum Phase {
+        /**
+         * Reading the marker file, together with detecting the agent configuration when it is not known yet.
+         */
+        MARKER_CHECK("markerCheck"),
+        /**
+         * Comparing the files of an installation with its manifest.
+         */
+        VERIFY("verify"),
+        DETECTION("detection"),
+        CATALOG("catalog"),
+        /**
+         * Downloading from upstream, into the controller cache or directly on the agent.
+         */
+        DOWNLOAD("download"),
+        /**
+         * Waiting for another installation that fills the same cache file.
+         */
+        WAIT("wait"),
+        EXTRACTION("extraction"),
+        PULL_UP("pullUp"),
+        CACHE_PACK("cachePack"),
+        CACHE_UNPACK("cacheUnpack");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    @FunctionalInterface
+    interface Timer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private record Key(String id, String platform, String cpu) {}
+
+    /**
+     * An installation in progress. It is only used by the thread running the installation.
+     */
+    static final class Recording implements AutoCloseable {
+        private final InstallMetrics metrics;
+        private final String id;
+        private final TaskListener log;
+        private final Recording outer;
+        private final long start = System.nanoTime();
+        private final long[] nanos = new long[Phase.values().length];
+        private String platform = "unknown";
+        private String cpu = "unknown";
+        private String node;
+        private long downloaded;
+        private long transferred;
+        private int cacheHits;
+        private int cacheMisses;
+        private int coalescedWaits;
+
+        private Recording(InstallMetrics metrics, String id, TaskListener log, @CheckForNull Recording outer) {
+            this.metrics = metrics;
+            this.id = id;
+            this.log = log;
+            this.outer = outer;
+        }
+
+        /**
+         * Labels the installation with the agent it runs on, once that is known.
+         */
+        void on(@CheckForNull Configuration configuration, String node) {
+            if (configuration != null) {
+                platform = configuration.platform().getId();
+                cpu = configuration.cpu().adoptiumName;
+            }
+            this.node = node;
+        }
+
+        /**
+         * Whether anything beyond checking the marker file and the manifest happened.
+         */
+        private boolean installed() {
+            for (Phase phase : Phase.values()) {
+                if (phase != Phase.MARKER_CHECK && phase != Phase.VERIFY && nanos[phase.ordinal()] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long elapsed() {
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * Adds the installation to the aggregated metrics and prints a summary into the build log when something
+         * was installed.
+         */
+        @Override
+        public void close() {
+            if (outer != null) {
+                CURRENT.set(outer);
+            } else {
+                CURRENT.remove();
+            }
+            metrics.add(this);
+            if (!installed()) {
+                return;
+            }
+            StringBuilder phases = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(nanos[phase.ordinal()]);
+                if (millis > 0) {
+                    if (phases.length() > 0) {
+                        phases.append(", ");
+                    }
+                    phases.append(phase.key).append(' ').append(Util.getTimeSpanString(millis));
+                }
+            }
+            log.getLogger()
+                    .println(Messages.InstallMetrics_summary(
+                            id,
+                            platform,
+                            cpu,
+                            Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(elapsed())),
+                            phases,
+                            FileUtils.byteCountToDisplaySize(downloaded),
+                            FileUtils.byteCountToDisplaySize(transferred),
+                            cacheHits,
+                            cacheMisses,
+                            coalescedWaits));
+        }
+    }
+
+    /**
+     * Aggregated metrics of all installations of a release on a platform and CPU.
+     */
+    private static final class Stats {
+        private final Map<Phase, long[]> phases = new EnumMap<>(Phase.class);
+        private long installations;
+        private long maxMillis;
+        private String slowestNode;
+        private long downloaded;
+        private long transferred;
+        private long cacheHits;
+        private long cacheMisses;
+        private long coalescedWaits;
+
+        synchronized void add(Recording recording) {
+            installations++;
+            long millis = TimeUnit.NANOSECONDS.toMillis(recording.elapsed());
+            if (millis >= maxMillis) {
+                maxMillis = millis;
+                slowestNode = recording.node;
+            }
+            for (Phase phase : Phase.values()) {
+                long nanos = recording.nanos[phase.ordinal()];
+                if (nanos > 0) {
+                    // count, total and maximum in milliseconds
+                    long[] p = phases.computeIfAbsent(phase, k -> new long[3]);
+                    p[0]++;
+                    p[1] += TimeUnit.NANOSECONDS.toMillis(nanos);
+                    p[2] = Math.max(p[2], TimeUnit.NANOSECONDS.toMillis(nanos));
+                }
+            }
+            downloaded += recording.downloaded;
+            transferred += recording.transferred;
+            cacheHits += recording.cacheHits;
+            cacheMisses += recording.cacheMisses;
+            coalescedWaits += recording.coalescedWaits;
+        }
+
+        synchronized void write(JSONObject o) {
+            o.put("installations", installations);
+            o.put("maxMillis", maxMillis);
+            if (slowestNode != null) {
+                o.put("slowestNode", slowestNode);
+            }
+            o.put("bytesDownloaded", downloaded);
+            o.put("bytesTransferred", transferred);
+            o.put("cacheHits", cacheHits);
+            o.put("cacheMisses", cacheMisses);
+            o.put("coalescedWaits", coalescedWaits);
+            JSONObject timings = new JSONObject();
+            for (Map.Entry<Phase, long[]> phase : phases.entrySet()) {
+                JSONObject t = new JSONObject();
+                t.put("count", phase.getValue()[0]);
+                t.put("totalMillis", phase.getValue()[1]);
+                t.put("maxMillis", phase.getValue()[2]);
+                timings.put(phase.getKey().key, t);
+            }
+            o.put("phases", timings);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the installations running at the same time across all agents and the bandwidth used to stream
+ * archives from the controller cache.
+ * <p>
+ * Waiting installations are served in arrival order. The bandwidth limit is shared by all streams, each read
+ * reserves its share of the budget in order.
+ */
+final class InstallThrottle {
+
+    private static final InstallThrottle INSTANCE = new InstallThrottle(
+            Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".install.maxConcurrent", 0),
+            Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".install.maxBytesPerSecond", 0));
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long maxBytesPerSecond;
+    private long nextFree;
+
+    /**
+     * @param maxConcurrent     Maximum number of concurrent installations, {@code 0} for no limit.
+     * @param maxBytesPerSecond Maximum bandwidth for all throttled streams together, {@code 0} for no limit.
+     */
+    InstallThrottle(int maxConcurrent, long maxBytesPerSecond) {
+        this.maxConcurrent = maxConcurrent;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    static InstallThrottle get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for an installation slot, reporting the wait in the build log.
+     *
+     * @return The slot, to be closed once the installation is finished.
+     */
+    Permit acquire(TaskListener log) throws InterruptedException {
+        if (permits == null) {
+            return () -> {};
+        }
+        if (!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            log.getLogger().println(Messages.InstallThrottle_acquire_waiting(maxConcurrent, permits.getQueueLength()));
+            permits.acquire();
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.getLogger().println(Messages.InstallThrottle_acquire_waited(Util.getTimeSpanString(waited)));
+        }
+        return new Permit() {
+            private boolean released;
+
+            @Override
+            public synchronized void close() {
+                if (!released) {
+                    released = true;
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Whether streams are throttled, so that they have to be copied through {@link #throttle}.
+     */
+    boolean limitsBandwidth() {
+        return maxBytesPerSecond > 0;
+    }
+
+    /**
+     * Wraps a stream so that it is read no faster than the bandwidth limit allows.
+     */
+    InputStream throttle(InputStream in) {
+        return maxBytesPerSecond > 0 ? new ThrottledInputStream(in) : in;
+    }
+
+    /**
+     * Reserves the bandwidth for {@code bytes} and returns how long the caller has to wait before using it.
+     */
+    private synchronized long reserve(int bytes) {
+        long now = System.nanoTime();
+        long start = Math.max(now, nextFree);
+        nextFree = start + bytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond;
+        return start - now;
+    }
+
+    @FunctionalInterface
+    interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final class ThrottledInputStream extends FilterInputStream {
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                pace(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, CHUNK));
+            if (n > 0) {
+                pace(n);
+            }
+            return n;
+        }
+
+        private void pace(int bytes) throws InterruptedIOException {
+            long wait = reserve(bytes);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Checks installations against the manifest written when they were installed, instead of trusting the marker file
+ * alone, and restores the files that are missing or were changed.
+ * <p>
+ * The manifest lists the path, size and SHA-256 of every file of the release. The agent compares the files with it
+ * on several threads, and only the damaged files are extracted again from the cached archive. Installations without
+ * a manifest, like those installed before verification was enabled, are not checked.
+ */
+final class InstallVerifier {
+
+    private static final Logger LOGGER = Logger.getLogger(InstallVerifier.class.getName());
+
+    enum Mode {
+        /**
+         * The marker file alone decides whether a release is installed.
+         */
+        OFF("off"),
+        /**
+         * Every file has to exist with the size in the manifest.
+         */
+        SIZE("size"),
+        /**
+         * Every file also has to have the checksum in the manifest, which reads the whole installation.
+         */
+        CHECKSUM("checksum");
+
+        private final String key;
+
+        Mode(String key) {
+            this.key = key;
+        }
+
+        static Mode of(@CheckForNull String key) {
+            if (key == null || key.isBlank()) {
+                return OFF;
+            }
+            for (Mode mode : values()) {
+                if (mode.key.equals(key.trim().toLowerCase(Locale.ENGLISH))) {
+                    return mode;
+                }
+            }
+            LOGGER.log(Level.WARNING, "Ignoring unknown installation verification mode {0}", key);
+            return OFF;
+        }
+    }
+
+    static Mode MODE = Mode.of(System.getProperty(AdoptOpenJDKInstaller.class.getName() + ".install.verify"));
+
+    private InstallVerifier() {}
+
+    /**
+     * @return The files of the installation that are missing or differ from its manifest, empty if there are none,
+     * if verification is disabled or if the installation has no manifest.
+     */
+    static List<DeltaInstall.Entry> verify(FilePath installation) throws IOException, InterruptedException {
+        if (MODE == Mode.OFF) {
+            return List.of();
+        }
+        return installation.act(new Verify(MODE == Mode.CHECKSUM));
+    }
+
+    /**
+     * Extracts the damaged files of an installation again from the archive it was installed from.
+     *
+     * @param archive The cached archive.
+     * @param damaged The files returned by {@link #verify(FilePath)}.
+     * @return Whether all files were restored, otherwise the release has to be installed again.
+     */
+    static boolean repair(File archive, FilePath installation, List<DeltaInstall.Entry> damaged, TaskListener log)
+            throws IOException, InterruptedException {
+        String prefix = prefix(DeltaInstall.manifest(archive), damaged.get(0));
+        if (prefix == null) {
+            return false;
+        }
+        Map<String, DeltaInstall.Entry> wanted = new HashMap<>();
+        for (DeltaInstall.Entry entry : damaged) {
+            wanted.put(prefix + entry.path(), entry);
+        }
+        Path repair = Files.createTempFile("adoptopenjdk-repair", ".tar.gz");
+        try {
+            int found;
+            try (TarArchiveOutputStream out =
+                    new TarArchiveOutputStream(new GZIPOutputStream(Files.newOutputStream(repair)))) {
+                out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                found = AdoptOpenJDKInstaller.isZip(archive.getName())
+                        ? fromZip(archive, prefix, wanted, out)
+                        : fromTar(archive, prefix, wanted, out);
+                out.finish();
+            }
+            if (found != damaged.size()) {
+                return false;
+            }
+            try (InstallThrottle.Permit permit = InstallThrottle.get().acquire(log);
+                    InputStream in = InstallThrottle.get().throttle(Files.newInputStream(repair))) {
+                ParallelExtractor.untar(installation, in);
+            }
+        } finally {
+            Files.deleteIfExists(repair);
+        }
+        log.getLogger().println(Messages.InstallVerifier_repair_repaired(damaged.size(), installation));
+        return true;
+    }
+
+    /**
+     * Finds the directory of the archive that was pulled up into the installation, from the archive entry with the
+     * content of a file of the installation.
+     *
+     * @return The path of the directory in the archive, empty or ending with a slash.
+     */
+    @CheckForNull
+    static String prefix(List<DeltaInstall.Entry> archive, DeltaInstall.Entry installed) {
+        for (DeltaInstall.Entry entry : archive) {
+            if (entry.sha256().equals(installed.sha256())
+                    && entry.size() == installed.size()
+                    && (entry.path().equals(installed.path()) || entry.path().endsWith("/" + installed.path()))) {
+                return entry.path()
+                        .substring(0, entry.path().length() - installed.path().length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the wanted entries of a tar archive, with their paths in the installation.
+     */
+    private static int fromTar(
+            File archive, String prefix, Map<String, DeltaInstall.Entry> wanted, TarArchiveOutputStream out)
+            throws IOException {
+        int found = 0;
+        try (TarArchiveInputStream in =
+                new TarArchiveInputStream(new GZIPInputStream(Files.newInputStream(archive.toPath())))) {
+            TarArchiveEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                DeltaInstall.Entry file = wanted.get(entry.getName());
+                if (!entry.isFile() || file == null || entry.getSize() != file.size()) {
+                    continue;
+                }
+                entry.setName(entry.getName().substring(prefix.length()));
+                out.putArchiveEntry(entry);
+                IOUtils.copy(in, out);
+                out.closeArchiveEntry();
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Copies the wanted entries of a zip archive into a tar archive, with their paths in the installation.
+     */
+    private static int fromZip(
+            File archive, String prefix, Map<String, DeltaInstall.Entry> wanted, TarArchiveOutputStream out)
+            throws IOException {
+        int found = 0;
+        try (ZipFile zip = ZipFile.builder().setFile(archive).get()) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                DeltaInstall.Entry file = wanted.get(entry.getName());
+                if (entry.isDirectory() || entry.isUnixSymlink() || file == null || entry.getSize() != file.size()) {
+                    continue;
+                }
+                TarArchiveEntry copy = new TarArchiveEntry(entry.getName().substring(prefix.length()));
+                copy.setSize(entry.getSize());
+                copy.setModTime(entry.getTime());
+                if (entry.getUnixMode() != 0) {
+                    copy.setMode(entry.getUnixMode());
+                }
+                out.putArchiveEntry(copy);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    IOUtils.copy(in, out);
+                }
+                out.closeArchiveEntry();
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static final class Verify extends MasterToSlaveFileCallable<List<DeltaInstall.Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Shared by all verifications in the agent JVM. The checks wait for the file system most of the time, a
+         * thread per processor keeps it busy.
+         */
+        private static final ForkJoinPool POOL =
+                new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        private final boolean checksums;
+
+        Verify(boolean checksums) {
+            this.checksums = checksums;
+        }
+
+        @Override
+        public List<DeltaInstall.Entry> invoke(File f, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            Path root = f.toPath().toAbsolutePath().normalize();
+            Path manifest = root.resolve(DeltaInstall.MANIFEST);
+            if (!Files.isRegularFile(manifest)) {
+                return List.of();
+            }
+            List<DeltaInstall.Entry> entries = DeltaInstall.read(manifest);
+            ForkJoinTask<List<DeltaInstall.Entry>> task = POOL.submit(() -> entries.parallelStream()
+                    .filter(entry -> damaged(root, entry))
+                    .toList());
+            try {
+                return new ArrayList<>(task.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException unchecked) {
+                    throw unchecked.getCause();
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                throw e;
+            }
+        }
+
+        private boolean damaged(Path root, DeltaInstall.Entry entry) {
+            Path file = root.resolve(entry.path()).normalize();
+            if (!file.startsWith(root)) {
+                throw new UncheckedIOException(
+                        new IOException("Refusing to verify outside of " + root + ": " + entry.path()));
+            }
+            try {
+                if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) || Files.size(file) != entry.size()) {
+                    return true;
+                }
+                if (!checksums) {
+                    return false;
+                }
+                MessageDigest digest = ArchiveChecksum.newDigest();
+                try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                    IOUtils.consume(in);
+                }
+                return !ArchiveChecksum.toHex(digest).equals(entry.sha256());
+            } catch (IOException e) {
+                // an unreadable file is restored like a changed one
+                return true;
+            }
+        }
+    }
+}
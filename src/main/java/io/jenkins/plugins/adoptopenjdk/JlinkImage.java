@@ -0,0 +1,232 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Runtime image of a release that contains only some of its modules, linked with {@code jlink}.
+ * <p>
+ * {@code jlink} has to run from the release itself on the platform of the image, so the first agent of each platform
+ * and CPU that needs an image extracts the full release from the controller cache, links the image and sends it back
+ * to the controller cache as a tar.gz archive. All other agents install the cached image like an upstream archive.
+ */
+final class JlinkImage {
+
+    /**
+     * Minutes {@code jlink} may take.
+     */
+    private static final long TIMEOUT = 5;
+
+    /**
+     * Normalized modules, which end up on the command line of {@code jlink}.
+     */
+    private static final Pattern MODULES = Pattern.compile("[\\w.,]+");
+
+    /**
+     * The {@code --compress} levels of {@code jlink}, numbered up to Java 20 and {@code zip-0} to {@code zip-9} since.
+     */
+    private static final Pattern COMPRESSION = Pattern.compile("[0-2]|zip-[0-9]");
+
+    private JlinkImage() {}
+
+    /**
+     * Returns the modules sorted and without duplicates, so that equal module sets share one image.
+     *
+     * @param modules Module names separated by commas or whitespace.
+     * @return The comma separated modules or {@code null} if there are none.
+     */
+    @CheckForNull
+    static String normalize(@CheckForNull String modules) {
+        if (Util.fixEmptyAndTrim(modules) == null) {
+            return null;
+        }
+        TreeSet<String> names = new TreeSet<>(Arrays.asList(modules.trim().split("[,\\s]+")));
+        names.remove("");
+        return names.isEmpty() ? null : String.join(",", names);
+    }
+
+    /**
+     * @param modules The normalized modules.
+     */
+    static boolean isValidModules(String modules) {
+        return MODULES.matcher(modules).matches();
+    }
+
+    static boolean isValidCompression(String compression) {
+        return COMPRESSION.matcher(compression).matches();
+    }
+
+    /**
+     * Identifies an image of a release.
+     *
+     * @param modules     The normalized modules.
+     * @param compression The {@code --compress} argument of {@code jlink}, {@code null} for its default.
+     */
+    static String key(String modules, @CheckForNull String compression) {
+        return "modules=" + modules + (compression == null ? "" : " compress=" + compression);
+    }
+
+    /**
+     * Returns the name of the cached archive of an image.
+     */
+    static String fileName(String key) {
+        MessageDigest digest = ArchiveChecksum.newDigest();
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        return "jlink-" + ArchiveChecksum.toHex(digest).substring(0, 16) + ".tar.gz";
+    }
+
+    /**
+     * Links an image from a full installation of a release.
+     *
+     * @param jdk   The full installation on the agent.
+     * @param image The directory to create the image in, replaced if it exists.
+     * @throws IOException If the modules or the compression are not valid, before anything is run.
+     */
+    static void link(FilePath jdk, FilePath image, String modules, @CheckForNull String compression)
+            throws IOException, InterruptedException {
+        if (!isValidModules(modules)) {
+            throw new IOException(Messages.JlinkImage_link_invalidModules(modules));
+        }
+        if (compression != null && !isValidCompression(compression)) {
+            throw new IOException(Messages.JlinkImage_link_invalidCompression(compression));
+        }
+        image.deleteRecursive();
+        jdk.act(new Link(image.getRemote(), modules, compression));
+    }
+
+    /**
+     * Packs an image into the controller cache.
+     * The archive is written to a temporary file that is renamed into place, like the re-packed installations.
+     *
+     * @return The checksum of the written archive.
+     */
+    static String pack(FilePath image, File cache) throws IOException, InterruptedException {
+        Path cacheDir = cache.toPath().getParent();
+        if (cacheDir == null) {
+            throw new NullPointerException("Parent directory of " + cache + " is null");
+        }
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, cache.getName(), ".tmp");
+        try {
+            MessageDigest digest = ArchiveChecksum.newDigest();
+            try (OutputStream out = new GZIPOutputStream(new DigestOutputStream(Files.newOutputStream(tmp), digest))) {
+                image.tar(out, "**/*");
+            }
+            Files.move(tmp, cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return ArchiveChecksum.toHex(digest);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static final class Link extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String output;
+        private final String modules;
+
+        @CheckForNull
+        private final String compression;
+
+        Link(String output, String modules, @CheckForNull String compression) {
+            this.output = output;
+            this.modules = modules;
+            this.compression = compression;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path home = f.toPath();
+            Path jlink = home.resolve(Files.exists(home.resolve("bin/jlink.exe")) ? "bin/jlink.exe" : "bin/jlink");
+            if (!Files.isExecutable(jlink)) {
+                throw new IOException(Messages.JlinkImage_link_missing(home));
+            }
+            List<String> command = new ArrayList<>(List.of(
+                    jlink.toString(),
+                    "--add-modules",
+                    modules,
+                    "--strip-debug",
+                    "--no-header-files",
+                    "--no-man-pages",
+                    "--output",
+                    output));
+            Path jmods = home.resolve("jmods");
+            if (Files.isDirectory(jmods)) {
+                command.add("--module-path");
+                command.add(jmods.toString());
+            }
+            if (compression != null) {
+                command.add("--compress=" + compression);
+            }
+            // the output goes to a file, so that reading it cannot block past the timeout
+            Path transcript = Files.createTempFile(home.getParent(), "jlink", ".log");
+            try {
+                Process process = new ProcessBuilder(command)
+                        .redirectErrorStream(true)
+                        .redirectOutput(transcript.toFile())
+                        .start();
+                try {
+                    if (!process.waitFor(TIMEOUT, TimeUnit.MINUTES)) {
+                        throw new IOException(Messages.JlinkImage_link_timeout(TIMEOUT));
+                    }
+                } finally {
+                    process.destroyForcibly();
+                }
+                int exit = process.exitValue();
+                if (exit != 0) {
+                    String log = Files.readString(transcript, Charset.defaultCharset());
+                    throw new IOException(Messages.JlinkImage_link_failed(exit, log.trim()));
+                }
+            } finally {
+                Files.deleteIfExists(transcript);
+            }
+            return null;
+        }
+    }
+}
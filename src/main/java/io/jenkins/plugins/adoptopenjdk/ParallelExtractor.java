@@ -0,0 +1,539 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReadAheadInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+
+/**
+ * Extracts archives on the agent with several threads, as a replacement for {@link FilePath#untarFrom} and
+ * {@link FilePath#unzipFrom} that produces the same files, modes and modification times.
+ * <p>
+ * A tar archive has to be inflated in order. The stream from the controller is read ahead on one thread, inflated
+ * and parsed on another, and the files are written by a pool of writer threads. A zip archive is spooled to disk
+ * first, as its entries can then be inflated and written independently by the pool.
+ */
+final class ParallelExtractor {
+
+    /**
+     * Writer threads on the agent, {@code 0} for one per processor of the agent and {@code 1} to extract with the
+     * methods of {@link FilePath}.
+     */
+    static int THREADS = Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".extract.threads", 0);
+
+    /**
+     * Files up to this size are read into memory and handed to the writers, larger ones are written while reading.
+     */
+    private static final int BUFFERED_FILE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Bytes read into memory that the writers have not written yet.
+     */
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private static final int READ_AHEAD = 1024 * 1024;
+
+    /**
+     * Seconds to wait for the running writes to stop once the extraction finished or failed.
+     */
+    private static final long STOP_TIMEOUT = 60;
+
+    private ParallelExtractor() {}
+
+    /**
+     * Extracts a gzip compressed tar archive into {@code target}.
+     */
+    static void untar(FilePath target, InputStream archive) throws IOException, InterruptedException {
+        untar(target, archive, null);
+    }
+
+    /**
+     * Extracts a gzip compressed tar archive into {@code target} and keeps a copy of the archive on the agent.
+     *
+     * @param keep Where the agent keeps the archive, {@code null} to not keep it.
+     * @return The checksum of the kept archive, {@code null} if it was not kept.
+     */
+    @CheckForNull
+    static String untar(FilePath target, InputStream archive, @CheckForNull FilePath keep)
+            throws IOException, InterruptedException {
+        if (THREADS == 1) {
+            target.untarFrom(archive, FilePath.TarCompression.GZIP);
+            return null;
+        }
+        try (archive) {
+            return target.act(
+                    new Extract(new RemoteInputStream(archive, RemoteInputStream.Flag.GREEDY), false, THREADS, keep));
+        }
+    }
+
+    /**
+     * Extracts a zip archive into {@code target}.
+     */
+    static void unzip(FilePath target, InputStream archive) throws IOException, InterruptedException {
+        unzip(target, archive, null);
+    }
+
+    /**
+     * Extracts a zip archive into {@code target} and keeps a copy of the archive on the agent.
+     *
+     * @param keep Where the agent keeps the archive, {@code null} to not keep it.
+     * @return The checksum of the kept archive, {@code null} if it was not kept.
+     */
+    @CheckForNull
+    static String unzip(FilePath target, InputStream archive, @CheckForNull FilePath keep)
+            throws IOException, InterruptedException {
+        if (THREADS == 1) {
+            target.unzipFrom(archive);
+            return null;
+        }
+        try (archive) {
+            return target.act(
+                    new Extract(new RemoteInputStream(archive, RemoteInputStream.Flag.GREEDY), true, THREADS, keep));
+        }
+    }
+
+    /**
+     * Extracts an archive that the agent downloads itself, from the {@link CacheEndpoint} or another HTTP server.
+     * The archive is downloaded next to {@code target} first and only extracted once its checksum matches, so that
+     * nothing of a corrupted or tampered archive is written into {@code target}.
+     *
+     * @param expected The checksum the archive has to have.
+     * @param keep     Where the agent keeps the archive, {@code null} to not keep it.
+     * @return The checksum of the archive as downloaded by the agent, it was extracted if it equals {@code expected}.
+     */
+    static String download(
+            FilePath target, URI archive, String name, boolean zip, String expected, @CheckForNull FilePath keep)
+            throws IOException, InterruptedException {
+        return target.act(new Fetch(new CacheEndpoint.Download(archive, name), zip, THREADS, expected, keep));
+    }
+
+    /**
+     * Extracts an archive that is already on the agent, like one the agent downloaded from upstream itself.
+     *
+     * @param archive The archive, on the same agent as {@code target}.
+     */
+    static void extract(FilePath target, FilePath archive, boolean zip) throws IOException, InterruptedException {
+        target.act(new ExtractFile(archive.getRemote(), zip, THREADS));
+    }
+
+    private static final class ExtractFile extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String archive;
+        private final boolean zip;
+        private final int threads;
+
+        ExtractFile(String archive, boolean zip, int threads) {
+            this.archive = archive;
+            this.zip = zip;
+            this.threads = threads;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            try (InputStream in = Files.newInputStream(Paths.get(archive))) {
+                new Extract(in, zip, threads).invoke(f, channel);
+            }
+            return null;
+        }
+    }
+
+    private static final class Fetch extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final InputStream archive;
+        private final boolean zip;
+        private final int threads;
+        private final String expected;
+
+        @CheckForNull
+        private final String keep;
+
+        Fetch(InputStream archive, boolean zip, int threads, String expected, @CheckForNull FilePath keep) {
+            this.archive = archive;
+            this.zip = zip;
+            this.threads = threads;
+            this.expected = expected;
+            this.keep = keep != null ? keep.getRemote() : null;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path root = f.toPath().toAbsolutePath().normalize();
+            Path kept = keep != null ? Paths.get(keep) : null;
+            Path dir = kept != null ? kept.getParent() : root.getParent();
+            if (dir == null) {
+                throw new IOException("Parent directory of " + root + " is null");
+            }
+            Files.createDirectories(dir);
+            Path spool = Files.createTempFile(dir, ".archive", ".tmp");
+            try {
+                MessageDigest digest = ArchiveChecksum.newDigest();
+                try (InputStream in = new DigestInputStream(archive, digest)) {
+                    Files.copy(in, spool, StandardCopyOption.REPLACE_EXISTING);
+                }
+                String actual = ArchiveChecksum.toHex(digest);
+                if (!actual.equals(expected)) {
+                    return actual;
+                }
+                try (InputStream in = Files.newInputStream(spool)) {
+                    new Extract(in, zip, threads).invoke(f, channel);
+                }
+                if (kept != null) {
+                    Files.move(spool, kept, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return actual;
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    private static final class Extract extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final InputStream archive;
+        private final boolean zip;
+        private final int threads;
+        private final boolean checksum;
+
+        @CheckForNull
+        private final String keep;
+
+        Extract(InputStream archive, boolean zip, int threads) {
+            this(archive, zip, threads, null);
+        }
+
+        /**
+         * @param keep Where the agent keeps a copy of the archive, {@code null} to not keep it. The checksum of a kept
+         *             archive is computed on the agent.
+         */
+        Extract(InputStream archive, boolean zip, int threads, @CheckForNull FilePath keep) {
+            this.archive = archive;
+            this.zip = zip;
+            this.threads = threads;
+            this.checksum = keep != null;
+            this.keep = keep != null ? keep.getRemote() : null;
+        }
+
+        /**
+         * @return The checksum of the archive, {@code null} if it is not computed on the agent.
+         */
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path root = f.toPath().toAbsolutePath().normalize();
+            Files.createDirectories(root);
+            MessageDigest digest = checksum ? ArchiveChecksum.newDigest() : null;
+            InputStream in = digest != null ? new DigestInputStream(archive, digest) : archive;
+            Path kept = keep != null ? Paths.get(keep) : null;
+            Path copy = null;
+            try {
+                if (kept != null) {
+                    Files.createDirectories(kept.getParent());
+                    copy = Files.createTempFile(kept.getParent(), String.valueOf(kept.getFileName()), ".tmp");
+                    in = new TeeInputStream(in, Files.newOutputStream(copy), true);
+                }
+                try (Writers writers =
+                        new Writers(threads > 0 ? threads : Runtime.getRuntime().availableProcessors())) {
+                    if (zip) {
+                        unzip(root, in, writers);
+                    } else {
+                        untar(root, in, writers);
+                    }
+                }
+                if (copy != null) {
+                    in.close(); // completes the copy if the extraction left the archive open
+                    Files.move(copy, kept, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                if (copy != null) {
+                    Files.deleteIfExists(copy);
+                }
+            }
+            return digest != null ? ArchiveChecksum.toHex(digest) : null;
+        }
+
+        private void untar(Path root, InputStream archive, Writers writers) throws IOException, InterruptedException {
+            List<TarArchiveEntry> hardLinks = new ArrayList<>();
+            Map<Path, String> symlinks = new LinkedHashMap<>();
+            InputStream raw = ReadAheadInputStream.builder()
+                    .setInputStream(archive)
+                    .setBufferSize(READ_AHEAD)
+                    .get();
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(raw, 64 * 1024))) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextEntry()) != null) {
+                    Path file = resolve(root, entry.getName());
+                    if (entry.isSymbolicLink()) {
+                        symlinks.put(file, entry.getLinkName());
+                        continue;
+                    }
+                    symlinks.remove(file);
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(file);
+                    } else if (entry.isLink()) {
+                        hardLinks.add(entry);
+                    } else {
+                        Files.createDirectories(file.getParent());
+                        int mode = entry.getMode();
+                        FileTime modified = entry.getLastModifiedTime();
+                        if (entry.getSize() <= BUFFERED_FILE_SIZE) {
+                            byte[] content = IOUtils.toByteArray(tar, (int) entry.getSize());
+                            writers.submit(content.length, () -> {
+                                Files.write(file, content);
+                                attributes(file, mode, modified);
+                            });
+                        } else {
+                            Files.copy(tar, file, StandardCopyOption.REPLACE_EXISTING);
+                            attributes(file, mode, modified);
+                        }
+                    }
+                }
+                writers.await();
+                // the padding after the end of the tar archive is part of the checksum
+                IOUtils.consume(raw);
+            }
+            for (TarArchiveEntry entry : hardLinks) {
+                Path file = resolve(root, entry.getName());
+                Files.createDirectories(file.getParent());
+                Files.deleteIfExists(file);
+                Files.createLink(file, resolve(root, entry.getLinkName()));
+            }
+            symlinks(root, symlinks);
+        }
+
+        private void unzip(Path root, InputStream archive, Writers writers) throws IOException, InterruptedException {
+            Path spool = Files.createTempFile(root, ".archive", ".zip");
+            try {
+                try (archive) {
+                    Files.copy(archive, spool, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Map<Path, String> symlinks = new LinkedHashMap<>();
+                try (ZipFile zip = ZipFile.builder().setPath(spool).get()) {
+                    for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                        Path file = resolve(root, entry.getName());
+                        if (entry.isUnixSymlink()) {
+                            symlinks.put(file, zip.getUnixSymlink(entry));
+                            continue;
+                        }
+                        symlinks.remove(file);
+                        if (entry.isDirectory()) {
+                            Files.createDirectories(file);
+                        } else {
+                            Files.createDirectories(file.getParent());
+                            writers.submit(0, () -> {
+                                try (InputStream in = zip.getInputStream(entry)) {
+                                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                                }
+                                attributes(file, entry.getUnixMode(), FileTime.fromMillis(entry.getTime()));
+                            });
+                        }
+                    }
+                    writers.await();
+                }
+                symlinks(root, symlinks);
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    private static Path resolve(Path root, String name) throws IOException {
+        Path file = root.resolve(name).normalize();
+        if (!file.startsWith(root)) {
+            throw new IOException("Refusing to extract outside of " + root + ": " + name);
+        }
+        return file;
+    }
+
+    /**
+     * Creates the symbolic links of an archive once everything else is extracted, so no entry of the archive is ever
+     * written through one of them. A link is only created in a directory that really is inside of the root, as an
+     * earlier link may have redirected its parent elsewhere.
+     */
+    private static void symlinks(Path root, Map<Path, String> links) throws IOException {
+        Path real = root.toRealPath();
+        for (Map.Entry<Path, String> link : links.entrySet()) {
+            Path file = link.getKey();
+            Path existing = file.getParent();
+            while (!Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+                existing = existing.getParent();
+            }
+            if (!existing.toRealPath().startsWith(real)) {
+                throw new IOException("Refusing to extract outside of " + root + ": " + root.relativize(file));
+            }
+            Files.createDirectories(file.getParent());
+            symlink(file, link.getValue());
+        }
+    }
+
+    private static void symlink(Path file, String target) throws IOException {
+        Files.deleteIfExists(file);
+        Files.createSymbolicLink(file, Paths.get(target));
+    }
+
+    private static void attributes(Path file, int mode, FileTime modified) throws IOException {
+        Files.setLastModifiedTime(file, modified);
+        int bits = mode & 0777;
+        if (bits != 0) {
+            try {
+                Files.setPosixFilePermissions(file, permissions(bits));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system, as with FilePath
+            }
+        }
+    }
+
+    private static Set<PosixFilePermission> permissions(int bits) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] all = PosixFilePermission.values(); // from OWNER_READ to OTHERS_EXECUTE
+        for (int i = 0; i < all.length; i++) {
+            if ((bits & (1 << (all.length - 1 - i))) != 0) {
+                permissions.add(all[i]);
+            }
+        }
+        return permissions;
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    /**
+     * Pool of writer threads that limits the content waiting in memory.
+     */
+    private static final class Writers implements AutoCloseable {
+
+        private final ExecutorService executor;
+        private final Semaphore pending = new Semaphore(MAX_PENDING_BYTES);
+        private final List<Future<?>> tasks = new ArrayList<>();
+        private long submitted;
+
+        Writers(int threads) {
+            executor = Executors.newFixedThreadPool(
+                    threads, new NamingThreadFactory(new DaemonThreadFactory(), "ParallelExtractor"));
+        }
+
+        /**
+         * Queues a write, waiting while {@code bytes} would exceed the content allowed in memory.
+         */
+        void submit(int bytes, Write write) throws IOException, InterruptedException {
+            pending.acquire(bytes);
+            tasks.add(executor.submit(() -> {
+                try {
+                    write.run();
+                    return null;
+                } finally {
+                    pending.release(bytes);
+                }
+            }));
+            if (++submitted % 256 == 0) {
+                // fail early instead of reading the whole archive after a write failed
+                for (Iterator<Future<?>> it = tasks.iterator(); it.hasNext(); ) {
+                    Future<?> task = it.next();
+                    if (task.isDone()) {
+                        get(task);
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits for all queued writes and throws the first failure.
+         */
+        void await() throws IOException, InterruptedException {
+            for (Future<?> task : tasks) {
+                get(task);
+            }
+        }
+
+        private static void get(Future<?> task) throws IOException, InterruptedException {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Drops the queued writes and waits for the running ones, so that no write touches the installation after the
+         * extraction returned, or after it failed and the caller cleans up.
+         */
+        @Override
+        public void close() throws IOException, InterruptedException {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IOException("Writes did not stop within " + STOP_TIMEOUT + " seconds");
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.security.HMACConfidentialKey;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Lets agents download archives of the controller cache from other agents that already have them, so that a
+ * rollout to many agents does not go through the controller for every one of them.
+ * <p>
+ * The controller only coordinates. It records which agents hold which archive and hands out the agents that serve
+ * the fewest downloads at the moment. An agent that installed from an archive keeps a copy under its root directory
+ * and serves it with a small HTTP server. Like {@link CacheEndpoint}, every URL the controller hands out carries an
+ * expiry and a MAC over the archive and the expiry, keyed with a secret the controller derives for each agent and
+ * passes to it over the remoting channel. Agents verify what they download from a peer against the checksum of the
+ * controller cache, so a peer cannot hand out a different archive.
+ * <p>
+ * The server speaks plain HTTP and binds to the address the agent advertises unless configured otherwise. Anyone on
+ * the network path can read the archives and replay a URL until it expires, but only the archives of public releases
+ * are served. The copies an agent keeps are evicted, least recently served first, when they exceed their budget.
+ */
+@Restricted(NoExternalUse.class)
+public final class PeerDistribution {
+
+    private static final Logger LOGGER = Logger.getLogger(PeerDistribution.class.getName());
+
+    /**
+     * Port of the server on the agents, {@code 0} for any free port.
+     */
+    static int PORT = Integer.getInteger(AdoptOpenJDKInstaller.class.getName() + ".p2p.port", 0);
+
+    /**
+     * Address under which an agent is reachable from the other agents, read on the agent. Defaults to the address of
+     * its host name.
+     */
+    static final String HOST = AdoptOpenJDKInstaller.class.getName() + ".p2p.host";
+
+    /**
+     * Address the server binds to, read on the agent. Defaults to the address the agent advertises.
+     */
+    static final String BIND = AdoptOpenJDKInstaller.class.getName() + ".p2p.bind";
+
+    /**
+     * Byte budget of the copies an agent keeps, {@code 0} for no limit.
+     */
+    static long MAX_SIZE = Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".p2p.maxSize", 1L << 30);
+
+    /**
+     * How long a URL handed to an agent stays valid.
+     */
+    private static final long VALIDITY = TimeUnit.HOURS.toMillis(1);
+
+    private static final HMACConfidentialKey KEY = new HMACConfidentialKey(PeerDistribution.class, "secret");
+
+    /**
+     * Peers handed out per download, the agent tries them in order.
+     */
+    private static final int MAX_PEERS = 3;
+
+    /**
+     * Servers of the agents that serve an archive, by path of the archive in the cache and name of the agent.
+     */
+    private static final ConcurrentMap<String, Map<String, URI>> HOLDERS = new ConcurrentHashMap<>();
+
+    /**
+     * Downloads in progress per peer server.
+     */
+    private static final ConcurrentMap<URI, AtomicInteger> ACTIVE = new ConcurrentHashMap<>();
+
+    private PeerDistribution() {}
+
+    static boolean enabled() {
+        return TransferStrategy.configured().contains(TransferStrategy.PEER);
+    }
+
+    /**
+     * @return Where the agent keeps a copy of the archive to serve it to its peers, {@code null} if it does not.
+     */
+    @CheckForNull
+    static FilePath keep(File archive, Node node) {
+        if (!enabled() || node instanceof Jenkins) {
+            return null; // the controller serves its cache itself
+        }
+        String path = CacheEndpoint.relativePath(archive);
+        FilePath root = node.getRootPath();
+        return path != null && root != null ? root.child(ArchiveCache.ROOT).child(path) : null;
+    }
+
+    /**
+     * @return The peers that hold the archive, the least busy first.
+     */
+    static List<Peer> peers(File archive, Node node) {
+        String path = CacheEndpoint.relativePath(archive);
+        Map<String, URI> holders = path != null ? HOLDERS.get(path) : null;
+        if (holders == null) {
+            return List.of();
+        }
+        holders.keySet().removeIf(name -> !online(name));
+        long expires = System.currentTimeMillis() + VALIDITY;
+        return holders.entrySet().stream()
+                .filter(holder -> !holder.getKey().equals(node.getNodeName()))
+                .map(holder -> new Peer(
+                        holder.getKey(),
+                        holder.getValue(),
+                        uri(holder.getValue(), path, expires, secret(holder.getKey()))))
+                .sorted(Comparator.comparingInt(peer -> active(peer.server()).get()))
+                .limit(MAX_PEERS)
+                .toList();
+    }
+
+    private static boolean online(String name) {
+        Computer c = Jenkins.get().getComputer(name);
+        return c != null && c.isOnline() && !c.isTemporarilyOffline();
+    }
+
+    /**
+     * The key with which the controller signs the URLs of an agent.
+     */
+    private static String secret(String node) {
+        return KEY.mac("p2p/" + node);
+    }
+
+    /**
+     * @return The URL of an archive on the server of a peer, valid until {@code expires}.
+     */
+    static URI uri(URI server, String path, long expires, String secret) {
+        StringBuilder uri = new StringBuilder(server.toString())
+                .append(expires)
+                .append('/')
+                .append(mac(secret, expires + "/" + path));
+        for (String segment : path.split("/")) {
+            uri.append('/')
+                    .append(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return URI.create(uri.toString());
+    }
+
+    private static String mac(String secret, String message) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records that an agent downloads from a peer until the returned download is closed.
+     */
+    static Download downloading(Peer peer) {
+        AtomicInteger active = active(peer.server());
+        active.incrementAndGet();
+        return active::decrementAndGet;
+    }
+
+    private static AtomicInteger active(URI uri) {
+        return ACTIVE.computeIfAbsent(uri, k -> new AtomicInteger());
+    }
+
+    /**
+     * Stops handing out a peer that failed to serve an archive.
+     */
+    static void forget(Peer peer) {
+        HOLDERS.values().forEach(holders -> holders.remove(peer.node(), peer.server()));
+        ACTIVE.remove(peer.server());
+    }
+
+    /**
+     * Lets the agent serve the archive it kept to its peers, and evicts the copies that no longer fit into the budget
+     * of the agent.
+     *
+     * @param kept The copy of the archive on the agent, verified against the controller cache.
+     */
+    static void offer(File archive, Node node, FilePath kept) throws InterruptedException {
+        String path = CacheEndpoint.relativePath(archive);
+        if (path == null) {
+            return;
+        }
+        String name = node.getNodeName();
+        try {
+            Shared shared = kept.act(new Share(path, PORT, secret(name), MAX_SIZE));
+            HOLDERS.computeIfAbsent(path, k -> new ConcurrentHashMap<>()).put(name, shared.server());
+            for (String evicted : shared.evicted()) {
+                Map<String, URI> holders = HOLDERS.get(evicted);
+                if (holders != null) {
+                    holders.remove(name);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to serve " + path + " from " + node.getDisplayName(), e);
+        }
+    }
+
+    /**
+     * An agent that serves an archive.
+     *
+     * @param server The root URL of its server.
+     * @param uri    The signed URL of the archive.
+     */
+    record Peer(String node, URI server, URI uri) {}
+
+    /**
+     * The server an agent shares an archive from and the paths of the copies it evicted to make room for it.
+     */
+    record Shared(URI server, List<String> evicted) implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @FunctionalInterface
+    interface Download extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOffline(Computer c, @CheckForNull OfflineCause cause) {
+            drop(c.getName());
+        }
+
+        @Override
+        public void onTemporarilyOffline(Computer c, OfflineCause cause) {
+            drop(c.getName());
+        }
+
+        private static void drop(String name) {
+            HOLDERS.values().forEach(holders -> {
+                URI server = holders.remove(name);
+                if (server != null) {
+                    ACTIVE.remove(server);
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts serving a file on the agent and evicts the copies that exceed the budget.
+     */
+    private static final class Share extends MasterToSlaveFileCallable<Shared> {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final int port;
+        private final String secret;
+        private final long maxSize;
+
+        Share(String path, int port, String secret, long maxSize) {
+            this.path = path;
+            this.port = port;
+            this.secret = secret;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public Shared invoke(File f, VirtualChannel channel) throws IOException {
+            URI server = serve(path, f.toPath(), port, secret);
+            Path root = f.toPath();
+            for (int i = path.split("/").length; i > 0; i--) {
+                root = root.getParent();
+            }
+            return new Shared(server, evict(root, f.toPath(), maxSize));
+        }
+    }
+
+    /**
+     * Serves a file from the server of this JVM, starting it if needed.
+     *
+     * @param path   The path of the archive in the cache.
+     * @param secret The key the URLs of the server are signed with.
+     * @return The root URL of the server.
+     */
+    static URI serve(String path, Path file, int port, String secret) throws IOException {
+        try {
+            return Server.get(port).share(path, file, secret);
+        } catch (LinkageError e) {
+            throw new IOException("The JVM has no HTTP server", e);
+        }
+    }
+
+    /**
+     * Deletes the least recently served copies until the copies under {@code root} fit into the budget.
+     *
+     * @param keep The copy that was just shared and is kept regardless of the budget.
+     * @return The paths of the deleted copies relative to {@code root}.
+     */
+    static List<String> evict(Path root, Path keep, long maxSize) throws IOException {
+        if (maxSize <= 0 || !Files.isDirectory(root)) {
+            return List.of();
+        }
+        List<Path> copies;
+        try (Stream<Path> files = Files.walk(root)) {
+            copies = files.filter(Files::isRegularFile)
+                    .filter(file -> !String.valueOf(file.getFileName()).startsWith("."))
+                    .filter(file -> !String.valueOf(file.getFileName()).endsWith(".tmp"))
+                    .sorted(Comparator.comparingLong(file -> file.toFile().lastModified()))
+                    .collect(Collectors.toList());
+        }
+        long size = 0;
+        for (Path copy : copies) {
+            size += copy.toFile().length();
+        }
+        List<String> evicted = new ArrayList<>();
+        for (Path copy : copies) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (copy.equals(keep)) {
+                continue;
+            }
+            String path = root.relativize(copy).toString().replace(File.separatorChar, '/');
+            long length = copy.toFile().length();
+            Server.unshare(path);
+            try {
+                Files.delete(copy);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + copy, e);
+                continue;
+            }
+            LOGGER.log(Level.FINE, "Evicted {0}", copy);
+            size -= length;
+            evicted.add(path);
+        }
+        return evicted;
+    }
+
+    /**
+     * The server of an agent, shared by all archives it serves.
+     */
+    private static final class Server implements HttpHandler {
+
+        private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+        private static final Pattern PATH = Pattern.compile("/(\\d+)/([0-9a-f]+)/(.+)");
+
+        private static Server instance;
+
+        private final HttpServer http;
+        private final String host;
+        private final ConcurrentMap<String, Path> files = new ConcurrentHashMap<>();
+        private volatile String secret;
+
+        private Server(int port) throws IOException {
+            InetAddress advertised = InetAddress.getLocalHost();
+            String host = System.getProperty(HOST);
+            if (host == null) {
+                host = advertised instanceof Inet6Address
+                        ? "[" + advertised.getHostAddress() + "]"
+                        : advertised.getHostAddress();
+            } else {
+                advertised = InetAddress.getByName(host.replaceAll("^\\[|]$", ""));
+            }
+            this.host = host;
+            String bind = System.getProperty(BIND);
+            http = HttpServer.create(
+                    new InetSocketAddress(bind != null ? InetAddress.getByName(bind) : advertised, port), 0);
+            http.setExecutor(Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "PeerDistribution")));
+            http.createContext("/", this);
+            // the dispatcher thread inherits the daemon status of the thread that starts the server
+            Thread starter = new DaemonThreadFactory().newThread(http::start);
+            starter.start();
+            try {
+                starter.join();
+            } catch (InterruptedException e) {
+                http.stop(0);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        static synchronized Server get(int port) throws IOException {
+            if (instance == null) {
+                instance = new Server(port);
+            }
+            return instance;
+        }
+
+        static synchronized void unshare(String path) {
+            if (instance != null) {
+                instance.files.remove(path);
+            }
+        }
+
+        URI share(String path, Path file, String secret) {
+            this.secret = secret;
+            files.put(path, file);
+            return URI.create("http://" + host + ':' + http.getAddress().getPort() + '/');
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                Matcher p = PATH.matcher(exchange.getRequestURI().getPath());
+                if (!p.matches()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                String path = p.group(3);
+                long expires;
+                try {
+                    expires = Long.parseLong(p.group(1));
+                } catch (NumberFormatException e) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                if (expires < System.currentTimeMillis()
+                        || !MessageDigest.isEqual(
+                                mac(secret, expires + "/" + path).getBytes(StandardCharsets.US_ASCII),
+                                p.group(2).getBytes(StandardCharsets.US_ASCII))) {
+                    exchange.sendResponseHeaders(403, -1);
+                    return;
+                }
+                Path file = files.get(path);
+                if (file == null || !Files.isRegularFile(file) || !(method.equals("GET") || method.equals("HEAD"))) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                // the least recently served copies are evicted first
+                file.toFile().setLastModified(System.currentTimeMillis());
+                try (FileChannel fc = FileChannel.open(file)) {
+                    long length = fc.size();
+                    long from = 0;
+                    int status = 200;
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    Matcher m = range != null ? RANGE.matcher(range.trim()) : null;
+                    if (m != null && m.matches()) {
+                        from = Long.parseLong(m.group(1));
+                        if (from >= length) {
+                            exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                            exchange.sendResponseHeaders(416, -1);
+                            return;
+                        }
+                        status = 206;
+                        exchange.getResponseHeaders()
+                                .set("Content-Range", "bytes " + from + "-" + (length - 1) + "/" + length);
+                    }
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    if (method.equals("HEAD")) {
+                        exchange.sendResponseHeaders(status, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(status, length - from);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        WritableByteChannel target = Channels.newChannel(out);
+                        for (long position = from; position < length; ) {
+                            long n = fc.transferTo(position, length - position, target);
+                            if (n <= 0) {
+                                throw new EOFException();
+                            }
+                            position += n;
+                        }
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
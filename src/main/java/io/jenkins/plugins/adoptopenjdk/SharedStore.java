@@ -0,0 +1,72 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.util.Locale;
+
+/**
+ * Location of the extracted releases shared by all agents and tools on a host.
+ * <p>
+ * Each release is extracted once per platform and CPU below the configured directory, and the tool homes are
+ * symbolic links to it. Agents with different roots on the same host, and tools with different names for the same
+ * release, thereby use a single copy. Releases are never deleted from the store, as it is unknown which tool homes
+ * of other agents still point to them.
+ */
+final class SharedStore {
+
+    /**
+     * Absolute path of the store on the agents, {@code null} to install into every tool home separately.
+     */
+    static String LOCATION =
+            Util.fixEmptyAndTrim(System.getProperty(AdoptOpenJDKInstaller.class.getName() + ".install.sharedStore"));
+
+    private SharedStore() {}
+
+    /**
+     * Returns the directory of a release in the store of the host of {@code node}.
+     *
+     * @return The directory or {@code null} if there is no store or the agent is offline.
+     */
+    @CheckForNull
+    static FilePath locate(Node node, Platform p, CPU c, String id) {
+        if (LOCATION == null) {
+            return null;
+        }
+        FilePath store = node.createPath(LOCATION);
+        return store == null
+                ? null
+                : store.child(p.name().toLowerCase(Locale.ENGLISH))
+                        .child(c.name().toLowerCase(Locale.ENGLISH))
+                        .child(id.replaceAll("[^A-Za-z0-9_.-]+", "_"));
+    }
+}
@@ -0,0 +1,197 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How an archive of the controller cache gets to the agent that installs it.
+ * <p>
+ * The strategies are tried in the configured order. An agent that downloads the archive itself spares the remoting
+ * channel and the network interface of the controller. It downloads the archive into a file and only extracts it
+ * once its checksum matches the cache index, a download that fails or does not match moves on to the next location
+ * without having written anything into the installation. Streaming the archive through the agent connection needs
+ * nothing but the channel and always comes last.
+ */
+enum TransferStrategy {
+    /**
+     * The agent downloads the archive from another agent that holds it, see {@link PeerDistribution}.
+     */
+    PEER("peer"),
+    /**
+     * The agent downloads the archive from the {@link CacheEndpoint}.
+     */
+    CACHE_HTTP("http"),
+    /**
+     * The agent downloads the archive from the mirrors and upstream, like the controller did.
+     */
+    UPSTREAM("upstream"),
+    /**
+     * The controller streams the archive to the agent through the remoting channel.
+     */
+    CHANNEL("channel");
+
+    private static final Logger LOGGER = Logger.getLogger(TransferStrategy.class.getName());
+
+    /**
+     * Strategies in the order they are tried, separated by whitespace or commas.
+     */
+    static String STRATEGIES = System.getProperty(AdoptOpenJDKInstaller.class.getName() + ".transfer", "http,channel");
+
+    private final String key;
+
+    TransferStrategy(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return The configured strategies, ending with {@link #CHANNEL}.
+     */
+    static List<TransferStrategy> configured() {
+        List<TransferStrategy> strategies = new ArrayList<>();
+        for (String key : STRATEGIES.trim().toLowerCase(Locale.ENGLISH).split("[\\s,]+")) {
+            TransferStrategy strategy = null;
+            for (TransferStrategy candidate : values()) {
+                if (candidate.key.equals(key)) {
+                    strategy = candidate;
+                }
+            }
+            if (strategy == null) {
+                if (!key.isEmpty()) {
+                    LOGGER.log(Level.WARNING, "Ignoring unknown transfer strategy {0}", key);
+                }
+            } else if (!strategies.contains(strategy)) {
+                strategies.add(strategy);
+            }
+            if (strategy == CHANNEL) {
+                break;
+            }
+        }
+        if (!strategies.contains(CHANNEL)) {
+            strategies.add(CHANNEL);
+        }
+        return strategies;
+    }
+
+    /**
+     * Lets the agent download and extract the archive itself, with the first strategy and location that succeed.
+     *
+     * @param upstream The locations of the archive outside of the controller, empty if it only exists in the cache.
+     * @param keep     Where the agent keeps a copy of the archive, {@code null} to not keep it.
+     * @return The verified checksum of the archive, {@code null} if it has to be streamed through the channel. The
+     * target is empty then.
+     */
+    @CheckForNull
+    static String download(
+            ArchiveCache.Lease lease,
+            List<URI> upstream,
+            FilePath target,
+            @CheckForNull FilePath keep,
+            Node node,
+            TaskListener log)
+            throws IOException, InterruptedException {
+        String expected = lease.sha256();
+        if (expected == null) {
+            return null; // an archive without a known checksum is verified while it is streamed
+        }
+        File archive = lease.file();
+        for (TransferStrategy strategy : configured()) {
+            if (strategy == CHANNEL) {
+                break;
+            }
+            for (Source source : strategy.sources(archive, upstream, node)) {
+                try (PeerDistribution.Download peer =
+                        source.peer() != null ? PeerDistribution.downloading(source.peer()) : null) {
+                    String actual = ParallelExtractor.download(
+                            target,
+                            source.uri(),
+                            archive.getName(),
+                            AdoptOpenJDKInstaller.isZip(archive.getName()),
+                            expected,
+                            keep);
+                    if (expected.equals(actual)) {
+                        log.getLogger()
+                                .println(Messages.TransferStrategy_downloaded(
+                                        archive.getName(), node.getDisplayName(), source.description()));
+                        return actual;
+                    }
+                    log.getLogger()
+                            .println(Messages.TransferStrategy_checksumMismatch(
+                                    archive.getName(), node.getDisplayName(), source.description(), actual, expected));
+                } catch (IOException e) {
+                    log.getLogger()
+                            .println(Messages.TransferStrategy_failed(
+                                    archive.getName(), node.getDisplayName(), source.description(), e.getMessage()));
+                }
+                if (source.peer() != null) {
+                    PeerDistribution.forget(source.peer());
+                }
+                target.deleteContents();
+            }
+        }
+        log.getLogger().println(Messages.TransferStrategy_channel(archive.getName(), node.getDisplayName()));
+        return null;
+    }
+
+    private List<Source> sources(File archive, List<URI> upstream, Node node) {
+        switch (this) {
+            case PEER:
+                return PeerDistribution.peers(archive, node).stream()
+                        .map(peer -> new Source(peer.uri(), Messages.TransferStrategy_peer(peer.node()), peer))
+                        .toList();
+            case CACHE_HTTP:
+                URI uri = CacheEndpoint.uri(archive);
+                // the URL carries a token that does not belong into the build log
+                return uri != null ? List.of(new Source(uri, Messages.TransferStrategy_controller(), null)) : List.of();
+            case UPSTREAM:
+                return upstream.stream()
+                        .map(location -> new Source(location, location.toString(), null))
+                        .toList();
+            default:
+                return List.of();
+        }
+    }
+
+    /**
+     * A location to download an archive from.
+     *
+     * @param description Where the archive comes from, for the build log.
+     * @param peer        The agent that serves the archive, {@code null} if it is not served by an agent.
+     */
+    private record Source(URI uri, String description, @CheckForNull PeerDistribution.Peer peer) {}
+}
@@ -0,0 +1,227 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.Timer;
+
+/**
+ * Installs releases side by side and switches the tool home between them atomically.
+ * <p>
+ * Each release is extracted into its own directory below {@code <tool home>.versions}, and the tool home is a
+ * symbolic link to the active one. The link is replaced by renaming a new link over it, so the tool home always
+ * points to a complete installation, even while the next release is extracted. Inactive releases are deleted in the
+ * background once running builds had time to finish with them.
+ */
+final class VersionedInstall {
+
+    private static final Logger LOGGER = Logger.getLogger(VersionedInstall.class.getName());
+
+    static boolean ENABLED = Boolean.getBoolean(AdoptOpenJDKInstaller.class.getName() + ".install.sideBySide");
+
+    /**
+     * Minutes an inactive release is kept after it was replaced.
+     */
+    static long CLEANUP_DELAY =
+            Long.getLong(AdoptOpenJDKInstaller.class.getName() + ".install.sideBySide.cleanupDelay", 10);
+
+    private static final String VERSIONS = ".versions";
+
+    private VersionedInstall() {}
+
+    /**
+     * Returns a fresh directory for a release next to the tool home.
+     */
+    static FilePath newVersion(FilePath home, String id) {
+        return versions(home).child(id.replaceAll("[^A-Za-z0-9_.-]+", "_") + "-" + System.currentTimeMillis());
+    }
+
+    /**
+     * Points the tool home to {@code version} and schedules the deletion of the releases it replaced.
+     */
+    static void activate(FilePath home, FilePath version, TaskListener log) throws IOException, InterruptedException {
+        if (!home.act(new Activate(version.getName(), null))) {
+            log.getLogger().println(Messages.VersionedInstall_activate_noSymlink(home));
+        }
+        Timer.get().schedule(() -> cleanup(home), CLEANUP_DELAY, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Points the tool home to an installation outside of its versions directory, such as the {@link SharedStore}.
+     *
+     * @return {@code false} if the file system does not support symbolic links and the tool home was left as is.
+     */
+    static boolean link(FilePath home, FilePath installation, TaskListener log)
+            throws IOException, InterruptedException {
+        if (!home.act(new Activate(null, installation.getRemote()))) {
+            log.getLogger().println(Messages.VersionedInstall_link_noSymlink(home, installation));
+            return false;
+        }
+        Timer.get().schedule(() -> cleanup(home), CLEANUP_DELAY, TimeUnit.MINUTES);
+        return true;
+    }
+
+    /**
+     * Deletes the inactive releases, unless an installation is in progress that may be using its own directory.
+     */
+    static void cleanup(FilePath home) {
+        try (InstallLock lock = InstallLock.tryAcquire(home)) {
+            if (lock != null) {
+                versions(home).act(new DeleteInactive(home.getName()));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete the inactive releases of " + home, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static FilePath versions(FilePath home) {
+        FilePath parent = home.getParent();
+        if (parent == null) {
+            throw new NullPointerException("Parent directory of " + home + " is null");
+        }
+        return parent.child(home.getName() + VERSIONS);
+    }
+
+    /**
+     * Replaces the tool home by a link to a release. Falls back to moving a release of the versions directory into
+     * place where the file system does not support symbolic links.
+     */
+    private static final class Activate extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        @CheckForNull
+        private final String version;
+
+        @CheckForNull
+        private final String target;
+
+        /**
+         * @param version The release in the versions directory, or {@code null} to link to {@code target}.
+         * @param target  The absolute path of an installation elsewhere, or {@code null} to link to {@code version}.
+         */
+        Activate(@CheckForNull String version, @CheckForNull String target) {
+            this.version = version;
+            this.target = target;
+        }
+
+        @Override
+        public Boolean invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path home = f.toPath();
+            Path versions = home.resolveSibling(home.getFileName() + VERSIONS);
+            Path swap = home.resolveSibling(home.getFileName() + ".swap");
+            Files.deleteIfExists(swap);
+            try {
+                Files.createSymbolicLink(
+                        swap,
+                        version != null ? Paths.get(versions.getFileName().toString(), version) : Paths.get(target));
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.log(Level.FINE, "Cannot create a symbolic link " + swap, e);
+                if (version == null) {
+                    return false;
+                }
+                // keep the current installation until the release is in place
+                Path replaced = home.resolveSibling(home.getFileName() + ".replaced");
+                new FilePath(replaced.toFile()).deleteRecursive();
+                boolean installed = Files.exists(home, LinkOption.NOFOLLOW_LINKS);
+                if (installed) {
+                    Files.move(home, replaced);
+                }
+                try {
+                    Files.move(versions.resolve(version), home);
+                } catch (IOException failure) {
+                    if (installed) {
+                        try {
+                            Files.move(replaced, home);
+                        } catch (IOException restore) {
+                            failure.addSuppressed(restore);
+                        }
+                    }
+                    throw failure;
+                }
+                new FilePath(replaced.toFile()).deleteRecursive();
+                return false;
+            }
+            if (Files.isDirectory(home, LinkOption.NOFOLLOW_LINKS)) {
+                // installed in place by an earlier release of the plugin
+                Files.createDirectories(versions);
+                Files.move(home, versions.resolve("previous-" + System.currentTimeMillis()));
+            }
+            Files.move(swap, home, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * Deletes every release in the versions directory except the one the tool home points to.
+     */
+    private static final class DeleteInactive extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String home;
+
+        DeleteInactive(String home) {
+            this.home = home;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path versions = f.toPath();
+            if (!Files.isDirectory(versions)) {
+                return null;
+            }
+            Path link = versions.resolveSibling(home);
+            Path active = Files.isSymbolicLink(link)
+                    ? versions.resolve(Files.readSymbolicLink(link).getFileName())
+                    : null;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(versions)) {
+                for (Path child : children) {
+                    if (!child.equals(active)) {
+                        new FilePath(child.toFile()).deleteRecursive();
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
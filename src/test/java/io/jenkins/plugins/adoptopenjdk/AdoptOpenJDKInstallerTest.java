@@ -31,23 +31,55 @@ import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMoc
 import static hudson.Functions.isWindows;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
+import hudson.ExtensionList;
 import hudson.FilePath;
+import hudson.ProxyConfiguration;
 import hudson.model.*;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.remoting.Channel;
+import hudson.remoting.Command;
+import hudson.remoting.Request;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.tasks.BatchFile;
 import hudson.tasks.Shell;
 import hudson.tools.InstallSourceProperty;
 import hudson.tools.ToolInstaller;
+import hudson.util.FormValidation;
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import jenkins.model.Jenkins;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 @WithJenkins
@@ -64,6 +96,9 @@ class AdoptOpenJDKInstallerTest {
     private JDK testJdk;
     private Slave agent;
 
+    @TempDir
+    File tmp;
+
     @BeforeEach
     void setUp(JenkinsRule r) throws Exception {
         jenkinsRule = r;
@@ -94,12 +129,57 @@ class AdoptOpenJDKInstallerTest {
 
     @Test
     void configRoundtrip() throws Exception {
+        installer.setModules("java.base,java.sql");
+        installer.setCompression("zip-6");
         jenkinsRule.submit(jenkinsRule.createWebClient().goTo("configureTools").getFormByName("config"));
 
         JDK jdk = jenkinsRule.jenkins.getJDK(testJdk.getName());
         InstallSourceProperty isp = jdk.getProperties().get(InstallSourceProperty.class);
         assertEquals(1, isp.installers.size());
-        jenkinsRule.assertEqualBeans(installer, isp.installers.get(AdoptOpenJDKInstaller.class), "id");
+        jenkinsRule.assertEqualBeans(
+                installer, isp.installers.get(AdoptOpenJDKInstaller.class), "id,modules,compression");
+    }
+
+    @Test
+    void releasesAreSuggestedWithoutRenderingTheCatalog() throws Exception {
+        AdoptOpenJDKInstaller.DescriptorImpl descriptor =
+                jenkinsRule.jenkins.getDescriptorByType(AdoptOpenJDKInstaller.DescriptorImpl.class);
+        List<String> suggested = descriptor.doAutoCompleteId("17").getValues();
+        assertEquals("jdk-17.0.19+10", suggested.get(0));
+        assertTrue(suggested.stream().allMatch(name -> name.startsWith("jdk-17")));
+        assertEquals(
+                List.of("jdk8u492-b09"), descriptor.doAutoCompleteId("8u49").getValues());
+
+        AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList catalog = AdoptOpenJDKInstaller.getAdoptOpenJDKFamilyList();
+        assertEquals(2, catalog.find(null, 2).size());
+        assertTrue(catalog.find("jdk-99", 10).isEmpty());
+        assertEquals("jdk-16.0.2+7", catalog.find("16.0.2", 10).get(0).release_name);
+    }
+
+    @Test
+    void releasesAreOnlyCheckedForAdministrators() throws Exception {
+        jenkinsRule.jenkins.setSecurityRealm(jenkinsRule.createDummySecurityRealm());
+        jenkinsRule.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ)
+                .everywhere()
+                .to("reader")
+                .grant(Jenkins.ADMINISTER)
+                .everywhere()
+                .to("admin"));
+        AdoptOpenJDKInstaller.DescriptorImpl descriptor =
+                jenkinsRule.jenkins.getDescriptorByType(AdoptOpenJDKInstaller.DescriptorImpl.class);
+
+        try (ACLContext context = ACL.as2(User.getById("reader", true).impersonate2())) {
+            assertEquals(FormValidation.Kind.OK, descriptor.doCheckId("jdk-0").kind);
+        }
+        try (ACLContext context = ACL.as2(User.getById("admin", true).impersonate2())) {
+            assertEquals(FormValidation.Kind.WARNING, descriptor.doCheckId("jdk-0").kind);
+            assertEquals(FormValidation.Kind.OK, descriptor.doCheckId("jdk-25.0.3+9").kind);
+            assertEquals(FormValidation.Kind.OK, descriptor.doCheckModules("java.base, java.sql").kind);
+            assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckModules("java.base --output=/tmp").kind);
+            assertEquals(FormValidation.Kind.OK, descriptor.doCheckCompression("zip-6").kind);
+            assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckCompression("zip-6 --output=/tmp").kind);
+        }
     }
 
     @Test
@@ -135,13 +215,400 @@ class AdoptOpenJDKInstallerTest {
         FreeStyleBuild freeStyleBuild3 = scheduleBuild(freeStyleProject);
         jenkinsRule.assertLogContains(cacheDir.getRemote(), freeStyleBuild3);
         jenkinsRule.assertLogNotContains(wireMockExtension.baseUrl(), freeStyleBuild3);
+        jenkinsRule.assertLogContains("Installed " + testJdk.getName(), freeStyleBuild3);
+
+        String metrics = jenkinsRule
+                .createWebClient()
+                .goTo("descriptorByName/" + AdoptOpenJDKInstaller.class.getName() + "/metrics", "application/json")
+                .getWebResponse()
+                .getContentAsString();
+        assertTrue(metrics.contains("\"extraction\""), metrics);
+    }
+
+    @Test
+    void concurrentInstallsDownloadOnce() throws Exception {
+        Slave otherAgent = jenkinsRule.createOnlineSlave();
+        FreeStyleProject project1 = createJavaVersionProject(agent);
+        FreeStyleProject project2 = createJavaVersionProject(otherAgent);
+
+        QueueTaskFuture<FreeStyleBuild> build1 = project1.scheduleBuild2(0);
+        QueueTaskFuture<FreeStyleBuild> build2 = project2.scheduleBuild2(0);
+        jenkinsRule.assertBuildStatusSuccess(build1);
+        jenkinsRule.assertBuildStatusSuccess(build2);
+
+        wireMockExtension.verify(1, archiveRequests());
+    }
+
+    @Test
+    void prefetchFillsCacheForConnectedAgents() throws Exception {
+        CachePrefetcher.ENABLED = true;
+        try {
+            CachePrefetcher prefetcher = ExtensionList.lookupSingleton(CachePrefetcher.class);
+            for (Future<?> download : prefetcher.scan(TaskListener.NULL)) {
+                download.get();
+            }
+        } finally {
+            CachePrefetcher.ENABLED = false;
+        }
+        wireMockExtension.verify(1, archiveRequests());
+
+        FilePath cacheDir = jenkinsRule.jenkins.getRootPath().child("caches/adoptopenjdk");
+        FreeStyleBuild build = scheduleBuild(createJavaVersionProject(agent));
+        jenkinsRule.assertLogContains(cacheDir.getRemote(), build);
+        jenkinsRule.assertLogNotContains(wireMockExtension.baseUrl(), build);
+    }
+
+    @Test
+    void catalogIsParsedOncePerDataFileUpdate() throws Exception {
+        AdoptOpenJDKInstaller.AdoptOpenJDKList list =
+                AdoptOpenJDKInstaller.AdoptOpenJDKList.all().get(AdoptOpenJDKInstaller.AdoptOpenJDKList.class);
+        AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList catalog = list.toList();
+        assertSame(catalog, list.toList());
+
+        AdoptOpenJDKInstaller.AdoptOpenJDKRelease release = catalog.getRelease("jdk-25.0.3+9");
+        assertNotNull(release);
+        assertNull(catalog.getRelease("jdk-0.0.0+0"));
+        AdoptOpenJDKInstaller.AdoptOpenJDKFile binary =
+                release.getBinary(AdoptOpenJDKInstaller.Platform.LINUX, AdoptOpenJDKInstaller.CPU.AMD64);
+        assertNotNull(binary);
+        assertEquals("linux", binary.os);
+        assertEquals("x64", binary.architecture);
+
+        // an update of the data file invalidates the parsed catalog
+        File dataFile = list.getDataFile().file;
+        assertTrue(dataFile.setLastModified(dataFile.lastModified() - 60_000));
+        assertNotSame(catalog, list.toList());
+    }
+
+    @Test
+    void installedToolIsFoundWithOneRemotingCall() throws Exception {
+        scheduleBuild(createJavaVersionProject(agent));
+
+        Channel channel = (Channel) Objects.requireNonNull(agent.getChannel());
+        AtomicInteger requests = new AtomicInteger();
+        Channel.Listener counter = new Channel.Listener() {
+            @Override
+            public void onWrite(Channel channel, Command cmd, long blockSize) {
+                if (cmd instanceof Request) {
+                    requests.incrementAndGet();
+                }
+            }
+        };
+        channel.addListener(counter);
+        try {
+            installer.performInstallation(testJdk, agent, TaskListener.NULL);
+        } finally {
+            channel.removeListener(counter);
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void agentConfigurationIsCachedUntilReconnect() throws Exception {
+        AdoptOpenJDKInstaller.Configuration configuration = AdoptOpenJDKInstaller.Configuration.of(agent);
+        assertSame(configuration, AdoptOpenJDKInstaller.Configuration.cached(agent.getChannel()));
+        assertSame(configuration, AdoptOpenJDKInstaller.Configuration.of(agent));
+
+        Computer computer = Objects.requireNonNull(agent.toComputer());
+        computer.disconnect(null).get();
+        computer.connect(false).get();
+        assertNull(AdoptOpenJDKInstaller.Configuration.cached(agent.getChannel()));
+
+        // detected again by the install probe of the new connection
+        installer.performInstallation(testJdk, agent, TaskListener.NULL);
+        AdoptOpenJDKInstaller.Configuration detected = AdoptOpenJDKInstaller.Configuration.cached(agent.getChannel());
+        assertEquals(configuration, detected);
+        assertNotSame(configuration, detected);
+        assertSame(detected, AdoptOpenJDKInstaller.Configuration.of(agent));
+    }
+
+    @Test
+    void corruptedCacheArchiveIsDownloadedAgain() throws Exception {
+        FreeStyleProject project = createJavaVersionProject(agent);
+        scheduleBuild(project);
+        FilePath jdkInstallation = Objects.requireNonNull(agent.getRootPath())
+                .child("tools/hudson.model.JDK/" + testJdk.getName().replace('+', '_'));
+        String marker = jdkInstallation.child(".installedByJenkins").readToString();
+        String bodyFile = isWindows() ? "Win.zip" : "Linux.tar.gz";
+        assertTrue(marker.startsWith(testJdk.getName() + "\n"));
+        assertTrue(marker.contains("sha256=" + sha256(bodyFile)));
+
+        File archive;
+        try (Stream<Path> files =
+                Files.walk(new File(jenkinsRule.jenkins.getRootDir(), "caches/adoptopenjdk").toPath())) {
+            archive = files.filter(f -> f.toString().endsWith(isWindows() ? ".zip" : ".tar.gz"))
+                    .findFirst()
+                    .orElseThrow()
+                    .toFile();
+        }
+        byte[] bytes = Files.readAllBytes(archive.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(archive.toPath(), bytes);
+        jdkInstallation.deleteRecursive();
+
+        FreeStyleBuild corrupted = jenkinsRule.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        jenkinsRule.assertLogContains("SHA-256", corrupted);
+        assertFalse(archive.exists());
+
+        FreeStyleBuild build = scheduleBuild(project);
+        jenkinsRule.assertLogContains(wireMockExtension.baseUrl(), build);
+        wireMockExtension.verify(2, archiveRequests());
+    }
+
+    @Test
+    void damagedFilesAreRestoredFromTheCache() throws Exception {
+        InstallVerifier.MODE = InstallVerifier.Mode.CHECKSUM;
+        try {
+            FreeStyleProject project = createJavaVersionProject(agent);
+            scheduleBuild(project);
+            FilePath jdkInstallation = Objects.requireNonNull(agent.getRootPath())
+                    .child("tools/hudson.model.JDK/" + testJdk.getName().replace('+', '_'));
+            assertTrue(jdkInstallation.child(DeltaInstall.MANIFEST).exists());
+            String marker = jdkInstallation.child(".installedByJenkins").readToString();
+            FilePath java = jdkInstallation.child(isWindows() ? "bin/java.bat" : "bin/java");
+            String content = java.readToString();
+            java.write("damaged", StandardCharsets.UTF_8.name());
+
+            FreeStyleBuild build = scheduleBuild(project);
+            jenkinsRule.assertLogContains("Restored 1 files of " + jdkInstallation, build);
+            assertEquals(content, java.readToString());
+            assertEquals(marker, jdkInstallation.child(".installedByJenkins").readToString());
+            wireMockExtension.verify(1, archiveRequests());
+        } finally {
+            InstallVerifier.MODE = InstallVerifier.Mode.OFF;
+        }
+    }
+
+    @Test
+    void upgradeSwitchesToReleaseInstalledSideBySide() throws Exception {
+        assumeFalse(isWindows());
+        FreeStyleProject project = createJavaVersionProject(agent);
+        scheduleBuild(project);
+        Path home = new File(Objects.requireNonNull(agent.getRootPath()).getRemote())
+                .toPath()
+                .resolve("tools/hudson.model.JDK/" + testJdk.getName().replace('+', '_'));
+        assertFalse(Files.isSymbolicLink(home));
+
+        VersionedInstall.ENABLED = true;
+        try {
+            InstallSourceProperty isp = testJdk.getProperties().get(InstallSourceProperty.class);
+            isp.installers.replace(new AdoptOpenJDKInstaller("jdk-25.0.2+10"));
+            scheduleBuild(project);
+            assertTrue(Files.isSymbolicLink(home));
+            Path previous = home.toRealPath();
+            assertTrue(Files.readString(home.resolve(".installedByJenkins")).startsWith("jdk-25.0.2+10\n"));
+
+            isp.installers.replace(new AdoptOpenJDKInstaller("jdk-25.0.3+9"));
+            scheduleBuild(project);
+            assertTrue(Files.isSymbolicLink(home));
+            assertNotEquals(previous, home.toRealPath());
+            assertTrue(Files.readString(home.resolve(".installedByJenkins")).startsWith("jdk-25.0.3+9\n"));
+            assertTrue(Files.isDirectory(previous));
+
+            VersionedInstall.cleanup(
+                    Objects.requireNonNull(agent.getRootPath()).child("tools/hudson.model.JDK/" + home.getFileName()));
+            assertFalse(Files.exists(previous));
+            assertTrue(Files.isDirectory(home.toRealPath()));
+        } finally {
+            VersionedInstall.ENABLED = false;
+        }
+    }
+
+    @Test
+    void toolsOnTheSameHostShareOneInstallation() throws Exception {
+        assumeFalse(isWindows());
+        SharedStore.LOCATION = new File(tmp, "store").getAbsolutePath();
+        try {
+            JDK otherJdk = new JDK(
+                    "other",
+                    null,
+                    Collections.singletonList(new InstallSourceProperty(
+                            Collections.<ToolInstaller>singletonList(new AdoptOpenJDKInstaller(installer.id)))));
+            jenkinsRule.jenkins.getJDKs().add(otherJdk);
+            Slave otherAgent = jenkinsRule.createOnlineSlave();
+            scheduleBuild(createJavaVersionProject(agent));
+            FreeStyleProject project = createJavaVersionProject(otherAgent);
+            project.setJDK(otherJdk);
+            jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+
+            Path home = Path.of(Objects.requireNonNull(agent.getRootPath()).getRemote(), "tools/hudson.model.JDK")
+                    .resolve(testJdk.getName().replace('+', '_'));
+            Path otherHome = Path.of(
+                    Objects.requireNonNull(otherAgent.getRootPath()).getRemote(), "tools/hudson.model.JDK", "other");
+            assertTrue(Files.isSymbolicLink(home));
+            assertTrue(Files.isSymbolicLink(otherHome));
+            assertEquals(home.toRealPath(), otherHome.toRealPath());
+            assertTrue(home.toRealPath().startsWith(tmp.toPath().toRealPath()));
+        } finally {
+            SharedStore.LOCATION = null;
+        }
+    }
+
+    @Test
+    void agentsDownloadWhenTheControllerCannotReachUpstream() throws Exception {
+        // a proxy that does not exist, only the controller uses it
+        jenkinsRule.jenkins.proxy = new ProxyConfiguration("127.0.0.1", 1);
+        FilePath cacheDir = jenkinsRule.jenkins.getRootPath().child("caches/adoptopenjdk");
+        try {
+            FreeStyleBuild build = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("downloading it on " + agent.getDisplayName(), build);
+            jenkinsRule.assertLogContains("on the agent", build);
+            jenkinsRule.assertLogNotContains(cacheDir.getRemote(), build);
+            jenkinsRule.assertLogNotContains("through the agent connection", build);
+
+            // waits for the copy of the first agent to arrive in the cache
+            Slave otherAgent = jenkinsRule.createOnlineSlave();
+            FreeStyleBuild second = jenkinsRule.assertBuildStatusSuccess(
+                    createJavaVersionProject(otherAgent).scheduleBuild2(0));
+            jenkinsRule.assertLogContains(cacheDir.getRemote(), second);
+        } finally {
+            jenkinsRule.jenkins.proxy = null;
+        }
+        wireMockExtension.verify(1, archiveRequests());
+        try (Stream<Path> files = Files.walk(
+                Path.of(Objects.requireNonNull(agent.getRootPath()).getRemote(), ArchiveCache.ROOT))) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void mirrorsAreTriedInOrder() throws Exception {
+        String upstream = wireMockExtension.baseUrl();
+        DownloadMirrors.MIRRORS = "http://127.0.0.1:1 " + upstream + "=" + upstream + "/mirror";
+        try {
+            FreeStyleBuild build = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("Failed to download from http://127.0.0.1:1/", build);
+            jenkinsRule.assertLogContains(upstream + "/mirror/", build);
+        } finally {
+            DownloadMirrors.MIRRORS = null;
+        }
+        wireMockExtension.verify(1, archiveRequests());
+        wireMockExtension.verify(
+                1, getRequestedFor(urlMatching("/mirror/" + (isWindows() ? ".*win.*\\.zip" : ".*linux.*\\.tar\\.gz"))));
+    }
+
+    @Test
+    void agentsDownloadFromTheCacheOverHttp() throws Exception {
+        CacheEndpoint.ENABLED = true;
+        try {
+            FreeStyleBuild build = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("from the controller cache over HTTP", build);
+            jenkinsRule.assertLogNotContains("through the agent connection", build);
+            jenkinsRule.assertLogNotContains(CacheEndpoint.URL_NAME, build);
+
+            File archive;
+            try (Stream<Path> files =
+                    Files.walk(jenkinsRule.jenkins.getRootDir().toPath().resolve(ArchiveCache.ROOT))) {
+                archive = files.filter(f -> f.getFileName().toString().matches(".*\\.(zip|tar\\.gz)"))
+                        .findFirst()
+                        .orElseThrow()
+                        .toFile();
+            }
+            URI uri = Objects.requireNonNull(CacheEndpoint.uri(archive));
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<byte[]> range = client.send(
+                    HttpRequest.newBuilder(uri).header("Range", "bytes=10-19").build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(206, range.statusCode());
+            assertEquals(
+                    HexFormat.of().formatHex(Files.readAllBytes(archive.toPath()), 10, 20),
+                    HexFormat.of().formatHex(range.body()));
+
+            // a later expiry than the one the MAC was computed for
+            URI tampered =
+                    URI.create(uri.toString().replace(CacheEndpoint.URL_NAME + "/", CacheEndpoint.URL_NAME + "/9"));
+            assertEquals(
+                    403,
+                    client.send(HttpRequest.newBuilder(tampered).build(), HttpResponse.BodyHandlers.discarding())
+                            .statusCode());
+
+            CacheEndpoint.ENABLED = false;
+            assertEquals(
+                    404,
+                    client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                            .statusCode());
+        } finally {
+            CacheEndpoint.ENABLED = false;
+        }
+    }
+
+    @Test
+    void agentsDownloadFromUpstreamAndFallBackToTheChannel() throws Exception {
+        TransferStrategy.STRATEGIES = "upstream";
+        try {
+            FreeStyleBuild build = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("Downloaded", build);
+            jenkinsRule.assertLogNotContains("through the agent connection", build);
+            // once into the controller cache and once by the agent
+            wireMockExtension.verify(2, archiveRequests());
+
+            Objects.requireNonNull(agent.getRootPath())
+                    .child("tools/hudson.model.JDK")
+                    .deleteRecursive();
+            wireMockExtension.stubFor(get(urlMatching(isWindows() ? ".*win.*" : ".*linux.*"))
+                    .willReturn(aResponse().withStatus(503)));
+            build = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("HTTP status 503", build);
+            jenkinsRule.assertLogContains("through the agent connection", build);
+        } finally {
+            TransferStrategy.STRATEGIES = "http,channel";
+        }
+    }
+
+    @Test
+    void agentsDownloadFromPeers() throws Exception {
+        TransferStrategy.STRATEGIES = "peer,channel";
+        try {
+            FreeStyleBuild first = scheduleBuild(createJavaVersionProject(agent));
+            jenkinsRule.assertLogContains("through the agent connection", first);
+            try (Stream<Path> files = Files.walk(
+                    Path.of(Objects.requireNonNull(agent.getRootPath()).getRemote(), ArchiveCache.ROOT))) {
+                assertEquals(1, files.filter(Files::isRegularFile).count());
+            }
+
+            Slave otherAgent = jenkinsRule.createOnlineSlave();
+            FreeStyleBuild second = jenkinsRule.assertBuildStatusSuccess(
+                    createJavaVersionProject(otherAgent).scheduleBuild2(0));
+            jenkinsRule.assertLogContains("from agent " + agent.getNodeName(), second);
+            jenkinsRule.assertLogNotContains("through the agent connection", second);
+            jenkinsRule.assertLogContains("mock install", second);
+
+            // an agent that went away is no longer handed out
+            Objects.requireNonNull(agent.toComputer()).disconnect(null).get();
+            FreeStyleBuild third = jenkinsRule.assertBuildStatusSuccess(
+                    createJavaVersionProject(jenkinsRule.createOnlineSlave()).scheduleBuild2(0));
+            jenkinsRule.assertLogContains("from agent " + otherAgent.getNodeName(), third);
+        } finally {
+            TransferStrategy.STRATEGIES = "http,channel";
+        }
+        wireMockExtension.verify(1, archiveRequests());
+    }
+
+    private FreeStyleProject createJavaVersionProject(Node node) throws Exception {
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.setAssignedNode(node);
+        project.setJDK(testJdk);
+        project.getBuildersList().add(isWindows() ? new BatchFile("java -version") : new Shell("java -version"));
+        return project;
+    }
+
+    private RequestPatternBuilder archiveRequests() {
+        return getRequestedFor(urlMatching(isWindows() ? ".*win.*\\.zip" : ".*linux.*\\.tar\\.gz"));
+    }
+
+    private String sha256(String bodyFile) throws Exception {
+        byte[] body =
+                IOUtils.toByteArray(Objects.requireNonNull(getClass().getResourceAsStream("/__files/" + bodyFile)));
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
     }
 
-    private void setupStub(String urlRegex, String bodyFile) {
+    private void setupStub(String urlRegex, String bodyFile) throws Exception {
         wireMockExtension.stubFor(get(urlMatching(urlRegex))
                 .willReturn(aResponse()
                         .withHeader("Content-Type", "application/octet-stream")
                         .withBodyFile(bodyFile)));
+        wireMockExtension.stubFor(get(urlMatching(urlRegex + "\\.sha256\\.txt"))
+                .willReturn(aResponse().withBody(sha256(bodyFile) + "  " + bodyFile)));
     }
 
     private FreeStyleBuild scheduleBuild(FreeStyleProject freeStyleProject) throws Exception {
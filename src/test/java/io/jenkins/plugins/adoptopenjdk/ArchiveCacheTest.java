@@ -0,0 +1,239 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArchiveCacheTest {
+
+    @TempDir
+    File tmp;
+
+    private long now;
+
+    @Test
+    void evictsLeastRecentlyUsedArchivesThatAreNotLeased() throws Exception {
+        ArchiveCache cache = new ArchiveCache(tmp, 250, () -> now);
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 100);
+        File b = archive("LINUX/AMD64/b/b.tar.gz", 100);
+        File c = archive("WINDOWS/AMD64/c/c.zip", 100);
+
+        now = 1;
+        try (ArchiveCache.Lease streaming = cache.add(a, null)) {
+            now = 2;
+            cache.add(b, null).close();
+            now = 3;
+            cache.add(c, null).close();
+
+            cache.evict();
+            assertTrue(a.exists());
+            assertFalse(b.exists());
+            assertFalse(b.getParentFile().exists());
+            assertTrue(c.exists());
+            assertEquals(200, cache.size());
+        }
+
+        now = 4;
+        cache.lease(a).close();
+        archive("LINUX/AMD64/d/d.tar.gz", 100);
+        cache.add(new File(tmp, "LINUX/AMD64/d/d.tar.gz"), null).close();
+        cache.evict();
+        assertTrue(a.exists());
+        assertFalse(c.exists());
+    }
+
+    @Test
+    void manifestsCountAgainstTheBudget() throws Exception {
+        ArchiveCache cache = new ArchiveCache(tmp, 250, () -> now);
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 100);
+        File b = archive("LINUX/AMD64/b/b.tar.gz", 100);
+        now = 1;
+        cache.add(a, null).close();
+        now = 2;
+        cache.add(b, null).close();
+        File manifest = archive("LINUX/AMD64/a/a.tar.gz" + DeltaInstall.MANIFEST, 100);
+        assertEquals(300, cache.size());
+
+        cache.evict();
+        assertFalse(a.exists());
+        assertFalse(manifest.exists());
+        assertTrue(b.exists());
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void manifestsWithoutArchiveAreRemoved() throws Exception {
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 10);
+        File kept = archive("LINUX/AMD64/a/a.tar.gz" + DeltaInstall.MANIFEST, 10);
+        File orphan = archive("LINUX/AMD64/b/b.tar.gz" + DeltaInstall.MANIFEST, 10);
+
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        assertTrue(kept.exists());
+        assertFalse(orphan.exists());
+        assertEquals(20, cache.size());
+        assertNotNull(cache.entry(a));
+    }
+
+    @Test
+    void entriesThatAreEqualHaveEqualHashCodes() {
+        ArchiveCache.Entry a = new ArchiveCache.Entry(10);
+        ArchiveCache.Entry b = new ArchiveCache.Entry(10);
+        a.sha256 = "aa";
+        b.sha256 = "aa";
+        a.hits = 3;
+        b.hits = 3;
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    @Test
+    void leaseOfMissingArchiveIsNull() {
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        assertNull(cache.lease(new File(tmp, "LINUX/AMD64/a/a.tar.gz")));
+    }
+
+    @Test
+    void indexIsPersisted() throws Exception {
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 10);
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        cache.add(a, null).close();
+        now = 42;
+        cache.lease(a).close();
+        cache.lease(a).close();
+        cache.save();
+
+        ArchiveCache reloaded = new ArchiveCache(tmp, 0, () -> now);
+        ArchiveCache.Entry entry = reloaded.entry(a);
+        assertNotNull(entry);
+        assertEquals(10, entry.size);
+        assertEquals(42, entry.lastAccess);
+        assertEquals(2, entry.hits);
+    }
+
+    @Test
+    void checksumsArePersistedAndCorruptedArchivesRemoved() throws Exception {
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 10);
+        File b = archive("LINUX/AMD64/b/b.tar.gz", 10);
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        cache.add(a, "aa").close();
+        try (ArchiveCache.Lease lease = cache.add(b, null)) {
+            assertNull(lease.sha256());
+            lease.verified("bb");
+            assertEquals("bb", lease.sha256());
+        }
+
+        ArchiveCache reloaded = new ArchiveCache(tmp, 0, () -> now);
+        try (ArchiveCache.Lease lease = reloaded.lease(a)) {
+            assertNotNull(lease);
+            assertEquals("aa", lease.sha256());
+            lease.invalidate();
+        }
+        assertFalse(a.exists());
+        assertNull(reloaded.entry(a));
+        assertEquals("bb", reloaded.entry(b).sha256);
+    }
+
+    @Test
+    void corruptedArchivesAreRemovedWhenTheLastLeaseIsClosed() throws Exception {
+        File a = archive("LINUX/AMD64/a/a.tar.gz", 10);
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        cache.add(a, "aa").close();
+        try (ArchiveCache.Lease served = cache.hold(a)) {
+            assertNotNull(served);
+            try (ArchiveCache.Lease lease = cache.lease(a)) {
+                lease.invalidate();
+            }
+            // still served, but no longer handed out
+            assertTrue(a.exists());
+            assertNull(cache.lease(a));
+            assertNull(cache.hold(a));
+            assertFalse(cache.contains(a));
+        }
+        assertFalse(a.exists());
+
+        // an archive filled again while the corrupted one is still read is kept
+        archive("LINUX/AMD64/a/a.tar.gz", 10);
+        try (ArchiveCache.Lease lease = cache.add(a, null)) {
+            try (ArchiveCache.Lease reader = cache.lease(a)) {
+                reader.invalidate();
+                archive("LINUX/AMD64/a/a.tar.gz", 10);
+                cache.add(a, "aa").close();
+            }
+        }
+        assertTrue(a.exists());
+        assertNotNull(cache.entry(a));
+    }
+
+    @Test
+    void archivesCachedBeforeTheIndexAreAdopted() throws Exception {
+        File legacy = archive("LINUX/AMD64/jdk-21.0.7+6.zip", 10);
+        archive("LINUX/AMD64/jdk-21.0.8+9.zip.123.tmp", 10);
+
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+        ArchiveCache.Entry entry = cache.entry(legacy);
+        assertNotNull(entry);
+        assertEquals(legacy.lastModified(), entry.lastAccess);
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    void repackedInstallationsAreRemoved() throws Exception {
+        File repacked = archive("LINUX/AMD64/jdk-21.0.7+6.zip", 10);
+        File leased = archive("LINUX/AMD64/jdk-17.0.15+6.zip", 10);
+        File archive = archive("WINDOWS/AMD64/jdk-21.0.7+6/OpenJDK21U.zip", 10);
+        ArchiveCache cache = new ArchiveCache(tmp, 0, () -> now);
+
+        try (ArchiveCache.Lease lease = cache.lease(leased)) {
+            cache.removeRepacked();
+            assertFalse(repacked.exists());
+            assertTrue(leased.exists());
+            assertTrue(archive.exists());
+        }
+        cache.removeRepacked();
+        assertFalse(leased.exists());
+        assertFalse(leased.getParentFile().exists());
+        assertNotNull(cache.entry(archive));
+        assertEquals(10, cache.size());
+    }
+
+    private File archive(String path, int size) throws IOException {
+        File file = new File(tmp, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,324 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class ArchiveDownloaderTest {
+
+    private static final String PATH = "/OpenJDK-jdk_x64_linux_hotspot.tar.gz";
+
+    @RegisterExtension
+    static WireMockExtension wireMockExtension = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    @TempDir
+    File tmp;
+
+    private final byte[] content = new byte[100];
+
+    private int chunkSize;
+
+    private JenkinsRule r;
+
+    @BeforeEach
+    void setUp(JenkinsRule r) {
+        this.r = r;
+        new Random(42).nextBytes(content);
+        chunkSize = ArchiveDownloader.CHUNK_SIZE;
+        ArchiveDownloader.CHUNK_SIZE = 30;
+    }
+
+    @AfterEach
+    void tearDown() {
+        ArchiveDownloader.CHUNK_SIZE = chunkSize;
+        DownloadMirrors.MIRRORS = null;
+        DownloadMirrors.MIRRORS_ONLY = false;
+        DownloadMirrors.HEDGE_DELAY = 0;
+    }
+
+    @Test
+    void downloadsRangesInParallel() throws Exception {
+        stubRanges();
+        Path target = download();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        wireMockExtension.verify(4, getRequestedFor(urlEqualTo(PATH)).withHeader("Range", matching("bytes=.*")));
+        wireMockExtension.verify(0, getRequestedFor(urlEqualTo(PATH)).withoutHeader("Range"));
+        assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ArchiveDownloader.PART)));
+        assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ArchiveDownloader.CHUNKS)));
+    }
+
+    @Test
+    void resumesInterruptedDownload() throws Exception {
+        stubRanges();
+        wireMockExtension.stubFor(get(urlEqualTo(PATH))
+                .withHeader("Range", equalTo("bytes=60-89"))
+                .willReturn(aResponse().withStatus(503)));
+        assertThrows(IOException.class, this::download);
+
+        stubRange(60, 89);
+        Path target = download();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo(PATH)).withHeader("Range", equalTo("bytes=0-29")));
+        wireMockExtension.verify(2, getRequestedFor(urlEqualTo(PATH)).withHeader("Range", equalTo("bytes=60-89")));
+    }
+
+    @Test
+    void rangesAreVerifiedOnceAssembled() throws Exception {
+        stubRanges();
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+        URI source = URI.create(wireMockExtension.baseUrl() + PATH);
+        String sha256 =
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        assertThrows(
+                IOException.class, () -> ArchiveDownloader.download(source, target, "0".repeat(64), TaskListener.NULL));
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ArchiveDownloader.PART)));
+        assertFalse(Files.exists(target.resolveSibling(target.getFileName() + ArchiveDownloader.CHUNKS)));
+        assertEquals(sha256, ArchiveDownloader.download(source, target, sha256, TaskListener.NULL));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void resumedRangesAreVerified() throws Exception {
+        stubRanges();
+        wireMockExtension.stubFor(get(urlEqualTo(PATH))
+                .withHeader("Range", equalTo("bytes=30-59"))
+                .willReturn(aResponse().withStatus(503)));
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+        URI source = URI.create(wireMockExtension.baseUrl() + PATH);
+        String sha256 =
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertThrows(IOException.class, () -> ArchiveDownloader.download(source, target, sha256, TaskListener.NULL));
+
+        stubRange(30, 59);
+        assertEquals(sha256, ArchiveDownloader.download(source, target, sha256, TaskListener.NULL));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void singleRequestWithoutRangeSupport() throws Exception {
+        wireMockExtension.stubFor(head(urlEqualTo(PATH)).willReturn(aResponse().withBody(content)));
+        wireMockExtension.stubFor(get(urlEqualTo(PATH)).willReturn(aResponse().withBody(content)));
+        Path target = download();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo(PATH)).withoutHeader("Range"));
+    }
+
+    @Test
+    void singleRequestIsVerified() throws Exception {
+        wireMockExtension.stubFor(get(urlEqualTo(PATH)).willReturn(aResponse().withBody(content)));
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+        URI source = URI.create(wireMockExtension.baseUrl() + PATH);
+        String sha256 =
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        assertThrows(
+                IOException.class, () -> ArchiveDownloader.download(source, target, "0".repeat(64), TaskListener.NULL));
+        assertFalse(Files.exists(target));
+        assertEquals(sha256, ArchiveDownloader.download(source, target, sha256, TaskListener.NULL));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void singleRequestWhenRangeIsIgnored() throws Exception {
+        wireMockExtension.stubFor(head(urlEqualTo(PATH))
+                .willReturn(aResponse().withHeader("Accept-Ranges", "bytes").withBody(content)));
+        wireMockExtension.stubFor(get(urlEqualTo(PATH)).willReturn(aResponse().withBody(content)));
+        Path target = download();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo(PATH)).withoutHeader("Range"));
+    }
+
+    @Test
+    void hedgedDownloadUsesTheFasterSource() throws Exception {
+        wireMockExtension.stubFor(get(urlEqualTo("/slow" + PATH))
+                .willReturn(aResponse().withBody(content).withFixedDelay(10_000)));
+        wireMockExtension.stubFor(
+                get(urlEqualTo(PATH)).willReturn(aResponse().withBody(content).withFixedDelay(100)));
+        String upstream = wireMockExtension.baseUrl();
+        DownloadMirrors.MIRRORS = upstream + "=" + upstream + "/slow";
+        DownloadMirrors.HEDGE_DELAY = 500;
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+
+        long start = System.nanoTime();
+        DownloadMirrors.hedged(
+                upstream + PATH,
+                TaskListener.NULL,
+                (source, attempt) -> ArchiveDownloader.download(source, target, null, TaskListener.NULL, attempt));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo("/slow" + PATH)));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo(PATH)));
+        wireMockExtension.verify(0, headRequestedFor(urlEqualTo(PATH)));
+    }
+
+    @Test
+    void agentDownloadIsHedged() throws Exception {
+        wireMockExtension.stubFor(get(urlEqualTo("/slow" + PATH))
+                .willReturn(aResponse().withBody(content).withFixedDelay(10_000)));
+        wireMockExtension.stubFor(
+                get(urlEqualTo(PATH)).willReturn(aResponse().withBody(content).withFixedDelay(100)));
+        DownloadMirrors.HEDGE_DELAY = 500;
+        FilePath dir = Objects.requireNonNull(r.createOnlineSlave().getRootPath()).child(ArchiveCache.ROOT);
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+
+        long start = System.nanoTime();
+        ArchiveDownloader.AgentArchive archive = ArchiveDownloader.downloadOnAgent(
+                URI.create(wireMockExtension.baseUrl() + PATH),
+                List.of(
+                        URI.create(wireMockExtension.baseUrl() + "/slow" + PATH),
+                        URI.create(wireMockExtension.baseUrl() + PATH)),
+                dir,
+                "archive.tar.gz",
+                TaskListener.NULL);
+        ArchiveDownloader.copyToController(archive, target);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)), archive.sha256());
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo("/slow" + PATH)));
+        wireMockExtension.verify(1, getRequestedFor(urlEqualTo(PATH)));
+        archive.file().delete();
+    }
+
+    private Path download() throws Exception {
+        Path target = tmp.toPath().resolve("archive.tar.gz");
+        // without an expected checksum there is nothing the archive was verified against
+        assertNull(ArchiveDownloader.download(
+                URI.create(wireMockExtension.baseUrl() + PATH), target, null, TaskListener.NULL));
+        return target;
+    }
+
+    private void stubRanges() {
+        wireMockExtension.stubFor(head(urlEqualTo(PATH))
+                .willReturn(aResponse()
+                        .withHeader("Accept-Ranges", "bytes")
+                        .withHeader("ETag", "\"v1\"")
+                        .withBody(content)));
+        stubRange(0, 29);
+        stubRange(30, 59);
+        stubRange(60, 89);
+        stubRange(90, 99);
+    }
+
+    private void stubRange(int from, int to) {
+        wireMockExtension.stubFor(get(urlEqualTo(PATH))
+                .withHeader("Range", equalTo("bytes=" + from + "-" + to))
+                .withHeader("If-Range", equalTo("\"v1\""))
+                .willReturn(aResponse()
+                        .withStatus(206)
+                        .withHeader("Content-Range", "bytes " + from + "-" + to + "/" + content.length)
+                        .withBody(Arrays.copyOfRange(content, from, to + 1))));
+    }
+
+    @Test
+    void checksumIsFetchedFromUpstreamAndNotFromTheMirror() throws Exception {
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        byte[] tampered = content.clone();
+        tampered[0]++;
+        wireMockExtension.stubFor(get(urlEqualTo("/mirror" + PATH)).willReturn(aResponse().withBody(tampered)));
+        wireMockExtension.stubFor(get(urlEqualTo("/mirror" + PATH + ".sha256.txt"))
+                .willReturn(aResponse()
+                        .withBody(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(tampered)))));
+        wireMockExtension.stubFor(get(urlEqualTo(PATH + ".sha256.txt"))
+                .willReturn(aResponse().withBody(sha256 + "  archive.tar.gz")));
+        URI upstream = URI.create(wireMockExtension.baseUrl() + PATH);
+        URI mirror = URI.create(wireMockExtension.baseUrl() + "/mirror" + PATH);
+
+        assertEquals(sha256, ArchiveChecksum.fetch(upstream, TaskListener.NULL));
+        FilePath dir = Objects.requireNonNull(r.createOnlineSlave().getRootPath()).child(ArchiveCache.ROOT);
+        IOException e = assertThrows(
+                IOException.class,
+                () -> ArchiveDownloader.downloadOnAgent(
+                        upstream, List.of(mirror), dir, "archive.tar.gz", TaskListener.NULL));
+        assertTrue(e.getMessage().contains(sha256), e.getMessage());
+    }
+
+    @Test
+    void missingChecksumIsReportedAndUnreachableChecksumFails() throws Exception {
+        URI upstream = URI.create(wireMockExtension.baseUrl() + PATH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(ArchiveChecksum.fetch(upstream, new StreamTaskListener(out, StandardCharsets.UTF_8)));
+        assertTrue(out.toString(StandardCharsets.UTF_8)
+                .contains(Messages.ArchiveChecksum_fetch_missing(ArchiveChecksum.location(upstream))));
+
+        wireMockExtension.stubFor(
+                get(urlEqualTo(PATH + ".sha256.txt")).willReturn(aResponse().withStatus(503)));
+        assertThrows(IOException.class, () -> ArchiveChecksum.fetch(upstream, TaskListener.NULL));
+        wireMockExtension.stubFor(
+                get(urlEqualTo(PATH + ".sha256.txt")).willReturn(aResponse().withBody("not a checksum")));
+        assertThrows(IOException.class, () -> ArchiveChecksum.fetch(upstream, TaskListener.NULL));
+
+        URI unreachable = URI.create("http://localhost:1" + PATH);
+        assertThrows(IOException.class, () -> ArchiveChecksum.fetch(unreachable, TaskListener.NULL));
+        DownloadMirrors.MIRRORS_ONLY = true;
+        assertNull(ArchiveChecksum.fetch(unreachable, TaskListener.NULL));
+    }
+}
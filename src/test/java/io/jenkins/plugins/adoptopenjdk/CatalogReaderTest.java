@@ -0,0 +1,138 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFamilyList;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKFile;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.AdoptOpenJDKRelease;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class CatalogReaderTest {
+
+    @Test
+    void readsTheReleaseList() throws Exception {
+        AdoptOpenJDKFamilyList list;
+        try (InputStream in =
+                Objects.requireNonNull(getClass().getResourceAsStream("/" + AdoptOpenJDKInstaller.class.getName()))) {
+            list = read(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals("OpenJDK 8 - HotSpot", list.data[0].name);
+        AdoptOpenJDKRelease release = list.data[0].releases[0];
+        assertEquals("jdk8u492-b09", release.release_name);
+        AdoptOpenJDKFile binary = release.getBinary(Platform.LINUX, CPU.AMD64);
+        assertEquals(
+                "https://github.com/adoptium/temurin8-binaries/releases/download/jdk8u492-b09/"
+                        + "OpenJDK8U-jdk_x64_linux_hotspot_8u492b09.tar.gz",
+                binary.binary_link);
+        assertSame(Platform.LINUX, binary.platform);
+        assertSame(CPU.AMD64, binary.cpu);
+
+        // repeated values are shared between all binaries of the list
+        AdoptOpenJDKFile other = list.data[list.data.length - 1].releases[0].getBinary(Platform.LINUX, CPU.AMD64);
+        assertSame(binary.os, other.os);
+        assertSame(binary.architecture, other.architecture);
+        assertSame(binary.openjdk_impl, other.openjdk_impl);
+        assertSame(release.openjdk_impl, binary.openjdk_impl);
+    }
+
+    @Test
+    void skipsUnknownPropertiesAndKeepsUnknownPlatforms() throws Exception {
+        AdoptOpenJDKFamilyList list = read(
+                """
+                {"version": 2, "generated": {"at": [1, 2.5e3, true, null]}, "data": [
+                  {"name": "OpenJDK \\u0032\\u0031 - \\"HotSpot\\"", "releases": [
+                    {"release_name": "jdk-21", "openjdk_impl": "hotspot", "binaries": [
+                      {"os": "plan9", "architecture": "x64", "openjdk_impl": "hotspot", "binary_link": null},
+                      {"os": "linux", "architecture": "x64", "openjdk_impl": "hotspot", "binary_link": "a\\/b"}
+                    ]}
+                  ]},
+                  {"name": "empty", "releases": []}
+                ]}
+                """);
+        assertEquals(2, list.version);
+        assertEquals("OpenJDK 21 - \"HotSpot\"", list.data[0].name);
+        AdoptOpenJDKFile unknown = list.data[0].releases[0].binaries[0];
+        assertEquals("plan9", unknown.os);
+        assertNull(unknown.platform);
+        assertNull(unknown.binary_link);
+        assertEquals("a/b", list.data[0].releases[0].getBinary(Platform.LINUX, CPU.AMD64).binary_link);
+        assertEquals(0, list.data[1].releases.length);
+    }
+
+    @Test
+    void readsEmptyAndMissingValues() throws Exception {
+        AdoptOpenJDKFamilyList list = read("{}");
+        assertEquals(0, list.data.length);
+        list = read("{\"data\":[{\"name\":null,\"releases\":null},{}],\"version\":-1,\"x\":{},\"y\":[]}");
+        assertNull(list.data[0].name);
+        assertEquals(0, list.data[0].releases.length);
+        assertEquals(0, list.data[1].releases.length);
+        assertEquals(-1, list.version);
+    }
+
+    @Test
+    void rejectsValuesOfTheWrongType() {
+        assertMalformed("{\"data\": {}}");
+        assertMalformed("{\"data\": [1]}");
+        assertMalformed("{\"data\": [{\"name\": []}]}");
+        assertMalformed("{\"data\": [{\"releases\": [{\"binaries\": \"none\"}]}]}");
+        assertMalformed("{\"data\": [{\"releases\": [{\"binaries\": [{\"os\": 1}]}]}]}");
+    }
+
+    @Test
+    void rejectsVersionsThatAreNoInteger() {
+        assertMalformed("{\"version\": 2.5}");
+        assertMalformed("{\"version\": 2147483648}");
+        assertMalformed("{\"version\": true}");
+    }
+
+    @Test
+    void reportsThePropertyInError() {
+        IOException e = assertThrows(IOException.class, () -> read("{\"version\": 2.5}"));
+        assertEquals(Messages.CatalogReader_malformed("version"), e.getMessage());
+    }
+
+    private static AdoptOpenJDKFamilyList read(String json) throws IOException {
+        return CatalogReader.read(JSONObject.fromObject(json));
+    }
+
+    private static void assertMalformed(String json) {
+        assertThrows(IOException.class, () -> read(json), json);
+    }
+}
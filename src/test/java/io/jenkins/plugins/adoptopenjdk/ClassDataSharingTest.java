@@ -0,0 +1,115 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static hudson.Functions.isWindows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClassDataSharingTest {
+
+    @TempDir
+    File tmp;
+
+    @BeforeEach
+    void enable() {
+        ClassDataSharing.ENABLED = true;
+    }
+
+    @AfterEach
+    void disable() {
+        ClassDataSharing.ENABLED = false;
+    }
+
+    @Test
+    void archiveIsCreatedOnce() throws Exception {
+        assumeFalse(isWindows());
+        Path home = home("11.0.27");
+        // stands in for java -Xshare:dump, counting its runs
+        Path java = home.resolve("bin/java");
+        Files.writeString(
+                java,
+                "#!/bin/sh\necho x >> \"$(dirname \"$0\")/runs\"\nmkdir -p \"$(dirname \"$0\")/../lib/server\"\n"
+                        + "touch \"$(dirname \"$0\")/../lib/server/classes.jsa\"\n");
+        assertTrue(java.toFile().setExecutable(true));
+
+        generate(home);
+        generate(home);
+        assertEquals(1, Files.readAllLines(home.resolve("bin/runs")).size());
+        assertEquals("jdk-11.0.27+6\ncds=created\n", marker(home));
+    }
+
+    @Test
+    void shippedArchiveIsKept() throws Exception {
+        Path home = home("21.0.7");
+        Files.createDirectories(home.resolve("lib/server"));
+        Files.writeString(home.resolve("lib/server/classes.jsa"), "");
+
+        generate(home);
+        assertEquals("jdk-11.0.27+6\ncds=present\n", marker(home));
+    }
+
+    @Test
+    void java8IsSkipped() throws Exception {
+        Path home = home("1.8.0_452");
+
+        generate(home);
+        assertEquals("jdk-11.0.27+6\ncds=unsupported\n", marker(home));
+    }
+
+    private Path home(String version) throws IOException {
+        Path home = tmp.toPath();
+        Files.createDirectories(home.resolve("bin"));
+        Files.writeString(home.resolve("bin/java"), "");
+        assertTrue(home.resolve("bin/java").toFile().setExecutable(true));
+        Files.writeString(home.resolve("release"), "JAVA_VERSION=\"" + version + "\"\n");
+        Files.writeString(home.resolve(".installedByJenkins"), "jdk-11.0.27+6\n", Charset.defaultCharset());
+        return home;
+    }
+
+    private static void generate(Path home) throws IOException, InterruptedException {
+        ClassDataSharing.generate(new FilePath(home.toFile()), Platform.LINUX, TaskListener.NULL);
+    }
+
+    private static String marker(Path home) throws IOException {
+        return Files.readString(home.resolve(".installedByJenkins"), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,138 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.FilePath;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeltaInstallTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void manifestIsComputedOnceAndKeptNextToTheArchive() throws Exception {
+        File archive = archive("a.tar.gz", Map.of("jdk/bin/java", "java", "jdk/release", "1"));
+
+        List<DeltaInstall.Entry> manifest = DeltaInstall.manifest(archive);
+        assertEquals(2, manifest.size());
+        assertTrue(new File(tmp, "a.tar.gz" + DeltaInstall.MANIFEST).isFile());
+
+        Files.delete(archive.toPath());
+        assertEquals(manifest, DeltaInstall.manifest(archive));
+    }
+
+    @Test
+    void onlyChangedFilesAreTransferred() throws Exception {
+        File versions = new File(tmp, "jdk.versions");
+        File first = archive("first.tar.gz", Map.of("jdk-1/bin/java", "java", "jdk-1/release", "1"));
+        FilePath old = new FilePath(new File(versions, "1"));
+        install(first, old);
+        File second = archive("second.tar.gz", Map.of("jdk-2/bin/java", "java", "jdk-2/release", "2"));
+        FilePath target = new FilePath(new File(versions, "2"));
+        target.mkdirs();
+
+        List<DeltaInstall.Entry> manifest = DeltaInstall.manifest(second);
+        Map<String, String> unchanged = DeltaInstall.inventory(target);
+        assertEquals(2, unchanged.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(second.toPath())) {
+            DeltaInstall.extract(in, manifest, unchanged, target, new StreamTaskListener(out, StandardCharsets.UTF_8));
+        }
+
+        Path java = new File(versions, "2/jdk-2/bin/java").toPath();
+        Path release = new File(versions, "2/jdk-2/release").toPath();
+        assertEquals("java", Files.readString(java));
+        assertEquals("2", Files.readString(release));
+        assertEquals(
+                Files.getAttribute(new File(versions, "1/bin/java").toPath(), "unix:ino"),
+                Files.getAttribute(java, "unix:ino"));
+        assertNotEquals(
+                Files.getAttribute(new File(versions, "1/release").toPath(), "unix:ino"),
+                Files.getAttribute(release, "unix:ino"));
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("Transferred 1 files, linked 1 unchanged files"));
+    }
+
+    @Test
+    void modifiedFilesAreNotReused() throws Exception {
+        File versions = new File(tmp, "jdk.versions");
+        FilePath old = new FilePath(new File(versions, "1"));
+        install(archive("first.tar.gz", Map.of("jdk-1/bin/java", "java")), old);
+        Path java = new File(versions, "1/bin/java").toPath();
+        Files.writeString(java, "jav2");
+        Files.setLastModifiedTime(java, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+
+        assertTrue(DeltaInstall.inventory(new FilePath(new File(versions, "2"))).isEmpty());
+    }
+
+    private void install(File archive, FilePath target) throws IOException, InterruptedException {
+        target.mkdirs();
+        try (InputStream in = Files.newInputStream(archive.toPath())) {
+            target.untarFrom(in, FilePath.TarCompression.GZIP);
+        }
+        FilePath base = target.listDirectories().get(0);
+        base.moveAllChildrenTo(target);
+        DeltaInstall.writeManifest(target, base, DeltaInstall.manifest(archive));
+    }
+
+    private File archive(String name, Map<String, String> files) throws IOException {
+        File archive = new File(tmp, name);
+        try (OutputStream out = Files.newOutputStream(archive.toPath());
+                TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] content = file.getValue().getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+                entry.setSize(content.length);
+                entry.setModTime(0);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,219 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DownloadMirrorsTest {
+
+    private static final String LINK =
+            "https://github.com/adoptium/temurin21-binaries/releases/download/jdk-21.0.7%2B6/OpenJDK21U.tar.gz";
+
+    @AfterEach
+    void reset() {
+        DownloadMirrors.MIRRORS = null;
+        DownloadMirrors.MIRRORS_ONLY = false;
+        DownloadMirrors.HEDGE_DELAY = 0;
+        DownloadMirrors.HEDGE_BYTES = 1024 * 1024;
+    }
+
+    @Test
+    void upstreamOnlyByDefault() {
+        assertEquals(List.of(URI.create(LINK)), DownloadMirrors.sources(LINK));
+    }
+
+    @Test
+    void mirrorsComeBeforeUpstream() {
+        DownloadMirrors.MIRRORS = "https://github.com/adoptium/=https://nexus.example.com/repository/temurin/,"
+                + " https://mirror.example.com/github/\n https://ignored.example.com/=https://other.example.com/";
+        assertEquals(
+                List.of(
+                        URI.create("https://nexus.example.com/repository/temurin/temurin21-binaries/releases/download/"
+                                + "jdk-21.0.7%2B6/OpenJDK21U.tar.gz"),
+                        URI.create("https://mirror.example.com/github/adoptium/temurin21-binaries/releases/download/"
+                                + "jdk-21.0.7%2B6/OpenJDK21U.tar.gz"),
+                        URI.create(LINK)),
+                DownloadMirrors.sources(LINK));
+    }
+
+    @Test
+    void upstreamCanBeExcluded() {
+        DownloadMirrors.MIRRORS_ONLY = true;
+        assertTrue(DownloadMirrors.sources(LINK).isEmpty());
+        assertThrows(IOException.class, () -> DownloadMirrors.download(LINK, TaskListener.NULL, source -> source));
+
+        DownloadMirrors.MIRRORS = "https://mirror.example.com";
+        assertEquals(
+                List.of(URI.create("https://mirror.example.com/adoptium/temurin21-binaries/releases/download/"
+                        + "jdk-21.0.7%2B6/OpenJDK21U.tar.gz")),
+                DownloadMirrors.sources(LINK));
+    }
+
+    @Test
+    void failedSourcesAreReportedAndSkipped() throws Exception {
+        DownloadMirrors.MIRRORS = "https://first.example.com https://second.example.com";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        URI used = DownloadMirrors.download(LINK, new StreamTaskListener(out, StandardCharsets.UTF_8), source -> {
+            if (!source.getHost().equals("second.example.com")) {
+                throw new IOException("unreachable");
+            }
+            return source;
+        });
+        assertEquals("second.example.com", used.getHost());
+        assertThat(out.toString(StandardCharsets.UTF_8), containsString("https://first.example.com/"));
+
+        IOException failure = assertThrows(
+                IOException.class,
+                () -> DownloadMirrors.download(LINK, TaskListener.NULL, source -> {
+                    throw new IOException(source.getHost());
+                }));
+        assertEquals("first.example.com", failure.getMessage());
+        assertEquals(2, failure.getSuppressed().length);
+    }
+
+    @Test
+    void slowSourcesAreHedged() throws Exception {
+        DownloadMirrors.MIRRORS = "https://slow.example.com";
+        DownloadMirrors.HEDGE_DELAY = 50;
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        URI used =
+                DownloadMirrors.hedged(LINK, new StreamTaskListener(out, StandardCharsets.UTF_8), (source, attempt) -> {
+                    assertNotNull(attempt);
+                    if (source.getHost().equals("slow.example.com")) {
+                        try {
+                            Thread.sleep(60_000);
+                        } catch (InterruptedException e) {
+                            cancelled.countDown();
+                            throw e;
+                        }
+                    }
+                    attempt.win();
+                    return source;
+                });
+        assertEquals(URI.create(LINK), used);
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertThat(out.toString(StandardCharsets.UTF_8), containsString("also downloading from " + LINK));
+    }
+
+    @Test
+    void lostAttemptsStopReadingStreamsThatIgnoreInterrupts() throws Exception {
+        DownloadMirrors.MIRRORS = "https://slow.example.com";
+        DownloadMirrors.HEDGE_DELAY = 50;
+        CountDownLatch closed = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        URI used = DownloadMirrors.hedged(LINK, TaskListener.NULL, (source, attempt) -> {
+            if (source.getHost().equals("slow.example.com")) {
+                // blocks like a read of a URLConnection, which only a close ends
+                InputStream stalled = new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        boolean interrupted = false;
+                        while (true) {
+                            try {
+                                if (closed.await(60, TimeUnit.SECONDS)) {
+                                    break;
+                                }
+                            } catch (InterruptedException e) {
+                                interrupted = true;
+                            }
+                        }
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new IOException("Stream closed");
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+                try {
+                    attempt.count(stalled).readAllBytes();
+                } finally {
+                    stopped.countDown();
+                }
+            }
+            attempt.win();
+            return source;
+        });
+        assertEquals(URI.create(LINK), used);
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void sourcesThatDeliverAreNotHedged() throws Exception {
+        DownloadMirrors.MIRRORS = "https://mirror.example.com";
+        DownloadMirrors.HEDGE_DELAY = 50;
+        DownloadMirrors.HEDGE_BYTES = 10;
+        AtomicInteger started = new AtomicInteger();
+        URI used = DownloadMirrors.hedged(LINK, TaskListener.NULL, (source, attempt) -> {
+            started.incrementAndGet();
+            attempt.count(new ByteArrayInputStream(new byte[10])).readAllBytes();
+            Thread.sleep(300);
+            attempt.win();
+            return source;
+        });
+        assertEquals("mirror.example.com", used.getHost());
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    void failedHedgedSourcesFallBackToTheNext() throws Exception {
+        DownloadMirrors.MIRRORS = "https://first.example.com";
+        DownloadMirrors.HEDGE_DELAY = 60_000;
+        URI used = DownloadMirrors.hedged(LINK, TaskListener.NULL, (source, attempt) -> {
+            if (source.getHost().equals("first.example.com")) {
+                throw new IOException("unreachable");
+            }
+            attempt.win();
+            return source;
+        });
+        assertEquals(URI.create(LINK), used);
+    }
+}
@@ -0,0 +1,192 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.FilePath;
+import hudson.model.Slave;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+class InstallLockTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void secondCallerWaitsForTheFirst() throws Exception {
+        FilePath location = new FilePath(tmp).child("jdk");
+        CountDownLatch acquired = new CountDownLatch(1);
+        CompletableFuture<Void> second;
+        try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+            second = CompletableFuture.runAsync(() -> {
+                try (InstallLock other = InstallLock.acquire(location, TaskListener.NULL)) {
+                    acquired.countDown();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertFalse(acquired.await(500, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(acquired.await(30, TimeUnit.SECONDS));
+        second.get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @WithJenkins
+    void interruptedHolderReleasesTheLock(JenkinsRule r) throws Exception {
+        // through the remoting channel of an agent, which an interrupted thread cannot call
+        Slave agent = r.createOnlineSlave();
+        FilePath location = Objects.requireNonNull(agent.getRootPath()).child("jdk");
+        CompletableFuture<Boolean> holder = CompletableFuture.supplyAsync(() -> {
+            try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+                // an aborted build
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return Thread.interrupted();
+        });
+        assertTrue(holder.get(30, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+            try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+                assertNotNull(lock);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        second.get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void locationsAreLockedIndependently() throws Exception {
+        FilePath root = new FilePath(tmp);
+        try (InstallLock jdk17 = InstallLock.acquire(root.child("jdk17"), TaskListener.NULL);
+                InstallLock jdk21 = InstallLock.acquire(root.child("jdk21"), TaskListener.NULL)) {
+            assertTrue(root.child("jdk17.lock").exists());
+            assertTrue(root.child("jdk21.lock").exists());
+        }
+    }
+
+    @Test
+    void lockFileIsRemovedWithTheInstallation() throws Exception {
+        FilePath root = new FilePath(tmp);
+        FilePath location = root.child("jdk");
+        try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+            location.mkdirs();
+        }
+        assertTrue(root.child("jdk.lock").exists());
+
+        try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+            location.deleteRecursive();
+        }
+        assertFalse(root.child("jdk.lock").exists());
+        assertFalse(InstallLock.HELD.containsKey(new File(tmp, "jdk.lock").getAbsolutePath()));
+    }
+
+    @Test
+    void removedLockFileIsMarkedForProcessesThatOpenedIt() throws Exception {
+        FilePath location = new FilePath(tmp).child("jdk");
+        File lockFile = new File(tmp, "jdk.lock");
+        InstallLock lock = InstallLock.acquire(location, TaskListener.NULL);
+        try (FileChannel other = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            lock.close();
+            assertFalse(lockFile.exists());
+            assertEquals(1, other.size());
+        }
+
+        try (InstallLock again = InstallLock.acquire(location, TaskListener.NULL)) {
+            assertEquals(0, lockFile.length());
+        }
+    }
+
+    @Test
+    void stateIsDroppedOnceNobodyWaits() throws Exception {
+        FilePath location = new FilePath(tmp).child("jdk");
+        String path = new File(tmp, "jdk.lock").getAbsolutePath();
+        try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+            location.mkdirs();
+            assertTrue(InstallLock.HELD.containsKey(path));
+            assertNull(InstallLock.tryAcquire(location));
+            assertEquals(1, InstallLock.HELD.get(path).users);
+        }
+        assertFalse(InstallLock.HELD.containsKey(path));
+    }
+
+    @Test
+    void interruptedAcquireLeavesNoState() throws Exception {
+        FilePath location = new FilePath(tmp).child("jdk");
+        String path = new File(tmp, "jdk.lock").getAbsolutePath();
+        try (InstallLock lock = InstallLock.acquire(location, TaskListener.NULL)) {
+            location.mkdirs();
+            CountDownLatch waiting = new CountDownLatch(1);
+            Thread waiter = new Thread(() -> {
+                try (InstallLock other = InstallLock.acquire(location, new StreamTaskListener(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        waiting.countDown();
+                    }
+                }, StandardCharsets.UTF_8))) {
+                    throw new AssertionError("acquired a held lock");
+                } catch (InterruptedException e) {
+                    // an aborted build
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            waiter.start();
+            assertTrue(waiting.await(30, TimeUnit.SECONDS));
+            waiter.interrupt();
+            waiter.join(30_000);
+            assertFalse(waiter.isAlive());
+            InstallLock.Held held = InstallLock.HELD.get(path);
+            assertEquals(1, held.users);
+            assertTrue(held.pending.isEmpty());
+            assertTrue(held.abandoned.isEmpty());
+        }
+        assertFalse(InstallLock.HELD.containsKey(path));
+    }
+}
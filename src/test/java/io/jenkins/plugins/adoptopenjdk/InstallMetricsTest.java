@@ -0,0 +1,104 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.CPU;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Configuration;
+import io.jenkins.plugins.adoptopenjdk.AdoptOpenJDKInstaller.Platform;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class InstallMetricsTest {
+
+    @Test
+    void installationsAreAggregatedPerReleasePlatformAndCpu() throws Exception {
+        InstallMetrics metrics = new InstallMetrics();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskListener log = new StreamTaskListener(out, StandardCharsets.UTF_8);
+        for (int i = 0; i < 2; i++) {
+            try (InstallMetrics.Recording recording = metrics.start("jdk-21.0.7+6", log)) {
+                recording.on(new Configuration(Platform.LINUX, CPU.AMD64), "agent" + i);
+                try (InstallMetrics.Timer timer = InstallMetrics.time(InstallMetrics.Phase.DOWNLOAD)) {
+                    Thread.sleep(20);
+                }
+                InstallMetrics.cacheMiss();
+                InstallMetrics.downloaded(1024);
+                InstallMetrics.transferred(2048);
+            }
+        }
+
+        JSONObject installation = metrics.toJSON().getJSONArray("installations").getJSONObject(0);
+        assertEquals("jdk-21.0.7+6", installation.getString("id"));
+        assertEquals("linux", installation.getString("platform"));
+        assertEquals("x64", installation.getString("cpu"));
+        assertEquals(2, installation.getLong("installations"));
+        assertEquals(2, installation.getLong("cacheMisses"));
+        assertEquals(0, installation.getLong("cacheHits"));
+        assertEquals(2048, installation.getLong("bytesDownloaded"));
+        assertEquals(4096, installation.getLong("bytesTransferred"));
+        JSONObject download = installation.getJSONObject("phases").getJSONObject("download");
+        assertEquals(2, download.getLong("count"));
+        assertThat(download.getLong("totalMillis"), greaterThanOrEqualTo(40L));
+        assertThat(out.toString(StandardCharsets.UTF_8), containsString("Installed jdk-21.0.7+6 for linux x64 in"));
+    }
+
+    @Test
+    void onlyInstallationsArePrintedIntoTheBuildLog() throws Exception {
+        InstallMetrics metrics = new InstallMetrics();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InstallMetrics.Recording recording =
+                metrics.start("jdk-21.0.7+6", new StreamTaskListener(out, StandardCharsets.UTF_8))) {
+            try (InstallMetrics.Timer timer = InstallMetrics.time(InstallMetrics.Phase.MARKER_CHECK)) {
+                Thread.sleep(1);
+            }
+        }
+        assertEquals("", out.toString(StandardCharsets.UTF_8));
+        assertEquals(
+                "unknown",
+                metrics.toJSON().getJSONArray("installations").getJSONObject(0).getString("platform"));
+    }
+
+    @Test
+    void nothingIsRecordedOutsideOfAnInstallation() {
+        InstallMetrics metrics = new InstallMetrics();
+        try (InstallMetrics.Timer timer = InstallMetrics.time(InstallMetrics.Phase.DOWNLOAD)) {
+            InstallMetrics.cacheHit();
+            InstallMetrics.downloaded(1);
+        }
+        assertFalse(metrics.toJSON().getJSONArray("installations").iterator().hasNext());
+    }
+}
@@ -0,0 +1,103 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+class InstallThrottleTest {
+
+    @Test
+    void unlimitedByDefault() throws Exception {
+        InstallThrottle throttle = new InstallThrottle(0, 0);
+        InputStream in = new ByteArrayInputStream(new byte[16]);
+        assertSame(in, throttle.throttle(in));
+        try (InstallThrottle.Permit first = throttle.acquire(TaskListener.NULL);
+                InstallThrottle.Permit second = throttle.acquire(TaskListener.NULL)) {
+            // never blocks
+        }
+    }
+
+    @Test
+    void installationsQueueForSlots() throws Exception {
+        InstallThrottle throttle = new InstallThrottle(1, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskListener log = new StreamTaskListener(out, StandardCharsets.UTF_8);
+        CountDownLatch acquired = new CountDownLatch(1);
+        CompletableFuture<Void> second;
+        try (InstallThrottle.Permit first = throttle.acquire(TaskListener.NULL)) {
+            second = CompletableFuture.runAsync(() -> {
+                try (InstallThrottle.Permit permit = throttle.acquire(log)) {
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertFalse(acquired.await(500, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(acquired.await(30, TimeUnit.SECONDS));
+        second.get(30, TimeUnit.SECONDS);
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertThat(text, containsString("Waiting for one of 1 installation slots"));
+        assertThat(text, containsString("for an installation slot"));
+    }
+
+    @Test
+    void streamsShareTheBandwidth() throws Exception {
+        InstallThrottle throttle = new InstallThrottle(0, 100 * 1024);
+        long start = System.nanoTime();
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[2];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = CompletableFuture.runAsync(() -> {
+                try (InputStream in = throttle.throttle(new ByteArrayInputStream(new byte[25 * 1024]))) {
+                    IOUtils.consume(in);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        CompletableFuture.allOf(reads).get(30, TimeUnit.SECONDS);
+        // 50 KiB at 100 KiB/s, the first read of each stream is reserved before any time has passed
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(200L));
+    }
+}
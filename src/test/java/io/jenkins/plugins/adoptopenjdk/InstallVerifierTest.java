@@ -0,0 +1,192 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.FilePath;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InstallVerifierTest {
+
+    private static final Map<String, String> FILES =
+            new TreeMap<>(Map.of("jdk-1/bin/java", "java", "jdk-1/release", "1", "jdk-1/lib/modules", "modules"));
+
+    @TempDir
+    File tmp;
+
+    @AfterEach
+    void resetMode() {
+        InstallVerifier.MODE = InstallVerifier.Mode.OFF;
+    }
+
+    @Test
+    void modes() {
+        assertEquals(InstallVerifier.Mode.OFF, InstallVerifier.Mode.of(null));
+        assertEquals(InstallVerifier.Mode.SIZE, InstallVerifier.Mode.of(" Size "));
+        assertEquals(InstallVerifier.Mode.CHECKSUM, InstallVerifier.Mode.of("checksum"));
+        assertEquals(InstallVerifier.Mode.OFF, InstallVerifier.Mode.of("everything"));
+    }
+
+    @Test
+    void missingAndChangedFilesAreFound() throws Exception {
+        FilePath target = install(tar());
+        Files.delete(new File(target.getRemote(), "bin/java").toPath());
+        Files.writeString(new File(target.getRemote(), "release").toPath(), "2");
+
+        assertTrue(InstallVerifier.verify(target).isEmpty());
+        InstallVerifier.MODE = InstallVerifier.Mode.SIZE;
+        assertEquals(List.of("bin/java"), paths(InstallVerifier.verify(target)));
+        InstallVerifier.MODE = InstallVerifier.Mode.CHECKSUM;
+        assertEquals(List.of("bin/java", "release"), paths(InstallVerifier.verify(target)));
+    }
+
+    @Test
+    void installationsWithoutManifestAreNotVerified() throws Exception {
+        FilePath target = install(tar());
+        Files.delete(new File(target.getRemote(), DeltaInstall.MANIFEST).toPath());
+        Files.delete(new File(target.getRemote(), "bin/java").toPath());
+
+        InstallVerifier.MODE = InstallVerifier.Mode.CHECKSUM;
+        assertTrue(InstallVerifier.verify(target).isEmpty());
+    }
+
+    @Test
+    void damagedFilesAreRestoredFromTarArchives() throws Exception {
+        assertRepaired(tar());
+    }
+
+    @Test
+    void damagedFilesAreRestoredFromZipArchives() throws Exception {
+        assertRepaired(zip());
+    }
+
+    private void assertRepaired(File archive) throws Exception {
+        FilePath target = install(archive);
+        Path java = new File(target.getRemote(), "bin/java").toPath();
+        Path release = new File(target.getRemote(), "release").toPath();
+        Path modules = new File(target.getRemote(), "lib/modules").toPath();
+        Files.delete(java);
+        Files.writeString(release, "2");
+        long untouched = Files.getLastModifiedTime(modules).toMillis();
+
+        InstallVerifier.MODE = InstallVerifier.Mode.CHECKSUM;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(InstallVerifier.repair(
+                archive, target, InstallVerifier.verify(target), new StreamTaskListener(out, StandardCharsets.UTF_8)));
+
+        assertEquals("java", Files.readString(java));
+        assertEquals("1", Files.readString(release));
+        assertEquals(untouched, Files.getLastModifiedTime(modules).toMillis());
+        assertTrue(InstallVerifier.verify(target).isEmpty());
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("Restored 2 files of " + target));
+    }
+
+    @Test
+    void filesMissingFromTheArchiveAreNotRestored() throws Exception {
+        FilePath target = install(tar());
+        Files.delete(new File(target.getRemote(), "bin/java").toPath());
+        InstallVerifier.MODE = InstallVerifier.Mode.SIZE;
+        List<DeltaInstall.Entry> damaged = InstallVerifier.verify(target);
+        File other = new File(tmp, "other.tar.gz");
+        write(other, Map.of("jdk-2/bin/javac", "javac"));
+
+        assertFalse(InstallVerifier.repair(
+                other, target, damaged, new StreamTaskListener(new ByteArrayOutputStream(), StandardCharsets.UTF_8)));
+    }
+
+    private static List<String> paths(List<DeltaInstall.Entry> entries) {
+        return entries.stream().map(DeltaInstall.Entry::path).sorted().toList();
+    }
+
+    /**
+     * Installs the files like the installer, pulled up from the directory of the archive.
+     */
+    private FilePath install(File archive) throws IOException, InterruptedException {
+        File home = new File(tmp, "jdk");
+        for (Map.Entry<String, String> file : FILES.entrySet()) {
+            Path path = new File(home, file.getKey().substring("jdk-1/".length())).toPath();
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, file.getValue());
+        }
+        FilePath target = new FilePath(home);
+        DeltaInstall.writeManifest(target, new FilePath(new File(home, "jdk-1")), DeltaInstall.manifest(archive));
+        return target;
+    }
+
+    private File tar() throws IOException {
+        File archive = new File(tmp, "jdk.tar.gz");
+        write(archive, FILES);
+        return archive;
+    }
+
+    private static void write(File archive, Map<String, String> files) throws IOException {
+        try (OutputStream out = Files.newOutputStream(archive.toPath());
+                TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] content = file.getValue().getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+    private File zip() throws IOException {
+        File archive = new File(tmp, "jdk.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+            for (Map.Entry<String, String> file : FILES.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,93 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JlinkImageTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void equalModuleSetsShareOneImage() {
+        assertNull(JlinkImage.normalize(" "));
+        assertEquals("java.base,java.sql", JlinkImage.normalize("java.sql, java.base\njava.sql"));
+        assertEquals(
+                JlinkImage.fileName(JlinkImage.key(JlinkImage.normalize("java.sql,java.base"), null)),
+                JlinkImage.fileName(JlinkImage.key(JlinkImage.normalize("java.base java.sql"), null)));
+        assertNotEquals(
+                JlinkImage.fileName(JlinkImage.key("java.base", null)),
+                JlinkImage.fileName(JlinkImage.key("java.base", "2")));
+    }
+
+    @Test
+    void onlyModuleNamesAndCompressionLevelsReachTheCommandLine() {
+        assertTrue(JlinkImage.isValidModules(JlinkImage.normalize("java.base java.sql jdk.unsupported")));
+        assertFalse(JlinkImage.isValidModules(JlinkImage.normalize("java.base --output=/tmp/x")));
+        assertFalse(JlinkImage.isValidModules(JlinkImage.normalize("java.base;rm")));
+        assertTrue(JlinkImage.isValidCompression("0"));
+        assertTrue(JlinkImage.isValidCompression("2"));
+        assertTrue(JlinkImage.isValidCompression("zip-0"));
+        assertTrue(JlinkImage.isValidCompression("zip-9"));
+        assertFalse(JlinkImage.isValidCompression("3"));
+        assertFalse(JlinkImage.isValidCompression("zip-10"));
+        assertFalse(JlinkImage.isValidCompression("2 --output=/tmp/x"));
+
+        FilePath jdk = new FilePath(tmp);
+        FilePath image = new FilePath(new File(tmp, "image"));
+        assertThrows(IOException.class, () -> JlinkImage.link(jdk, image, "java.base --bind-services", null));
+        assertThrows(IOException.class, () -> JlinkImage.link(jdk, image, "java.base", "2 --bind-services"));
+    }
+
+    @Test
+    void linksImageWithTheRequestedModules() throws Exception {
+        Path jdk = Path.of(System.getProperty("java.home"));
+        assumeTrue(Files.isDirectory(jdk.resolve("jmods")));
+        FilePath image = new FilePath(new File(tmp, "image"));
+
+        JlinkImage.link(new FilePath(jdk.toFile()), image, "java.base", null);
+
+        Path release = Path.of(image.getRemote(), "release");
+        assertTrue(Files.readString(release).contains("MODULES=\"java.base\""));
+        assertTrue(Files.isRegularFile(Path.of(image.getRemote(), "lib/modules")));
+    }
+}
@@ -0,0 +1,232 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import hudson.FilePath;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelExtractorTest {
+
+    @RegisterExtension
+    static WireMockExtension wireMockExtension = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void untarMatchesFilePath() throws Exception {
+        FilePath expected = new FilePath(new File(tmp, "expected"));
+        FilePath actual = new FilePath(new File(tmp, "actual"));
+        expected.untarFrom(fixture("Linux.tar.gz"), FilePath.TarCompression.GZIP);
+        ParallelExtractor.untar(actual, fixture("Linux.tar.gz"));
+
+        assertSameTree(expected, actual);
+    }
+
+    @Test
+    void unzipMatchesFilePath() throws Exception {
+        FilePath expected = new FilePath(new File(tmp, "expected"));
+        FilePath actual = new FilePath(new File(tmp, "actual"));
+        expected.unzipFrom(fixture("Win.zip"));
+        ParallelExtractor.unzip(actual, fixture("Win.zip"));
+
+        assertSameTree(expected, actual);
+    }
+
+    @Test
+    void downloadsAreVerifiedOnTheAgent() throws Exception {
+        for (String name : new String[] {"Linux.tar.gz", "Win.zip"}) {
+            byte[] archive;
+            try (InputStream in = fixture(name)) {
+                archive = in.readAllBytes();
+            }
+            wireMockExtension.stubFor(
+                    get(urlEqualTo("/" + name)).willReturn(aResponse().withBody(archive)));
+            FilePath expected = new FilePath(new File(tmp, "expected-" + name));
+            FilePath actual = new FilePath(new File(tmp, "actual-" + name));
+            boolean zip = name.endsWith(".zip");
+            if (zip) {
+                expected.unzipFrom(fixture(name));
+            } else {
+                expected.untarFrom(fixture(name), FilePath.TarCompression.GZIP);
+            }
+
+            URI uri = URI.create(wireMockExtension.baseUrl() + "/" + name);
+            String checksum = HexFormat.of()
+                    .formatHex(MessageDigest.getInstance("SHA-256").digest(archive));
+
+            assertEquals(checksum, ParallelExtractor.download(actual, uri, name, zip, checksum, null));
+            assertSameTree(expected, actual);
+        }
+    }
+
+    @Test
+    void downloadsWithAnotherChecksumAreNotExtracted() throws Exception {
+        byte[] archive;
+        try (InputStream in = fixture("Linux.tar.gz")) {
+            archive = in.readAllBytes();
+        }
+        wireMockExtension.stubFor(
+                get(urlEqualTo("/Linux.tar.gz")).willReturn(aResponse().withBody(archive)));
+        File target = new File(tmp, "target");
+        FilePath keep = new FilePath(new File(tmp, "kept/Linux.tar.gz"));
+
+        String actual = ParallelExtractor.download(
+                new FilePath(target),
+                URI.create(wireMockExtension.baseUrl() + "/Linux.tar.gz"),
+                "Linux.tar.gz",
+                false,
+                "0".repeat(64),
+                keep);
+
+        assertEquals(
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(archive)), actual);
+        String[] extracted = target.list();
+        assertTrue(extracted == null || extracted.length == 0);
+        assertFalse(keep.exists());
+        assertArrayEquals(new String[0], new File(tmp, "kept").list());
+    }
+
+    @Test
+    void entriesOutsideOfTheTargetAreRejected() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(archive))) {
+            TarArchiveEntry entry = new TarArchiveEntry("../evil");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write('x');
+            tar.closeArchiveEntry();
+        }
+
+        FilePath target = new FilePath(new File(tmp, "target"));
+        assertThrows(
+                IOException.class,
+                () -> ParallelExtractor.untar(target, new ByteArrayInputStream(archive.toByteArray())));
+        assertFalse(new File(tmp, "evil").exists());
+    }
+
+    @Test
+    void entriesAreNotWrittenThroughSymbolicLinks() throws Exception {
+        File outside = new File(tmp, "outside");
+        assertTrue(outside.mkdirs());
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(archive))) {
+            TarArchiveEntry link = new TarArchiveEntry("lib", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName(outside.getAbsolutePath());
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+            TarArchiveEntry entry = new TarArchiveEntry("lib/x");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write('x');
+            tar.closeArchiveEntry();
+        }
+        ByteArrayOutputStream links = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(links))) {
+            TarArchiveEntry link = new TarArchiveEntry("lib", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName(outside.getAbsolutePath());
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+            TarArchiveEntry nested = new TarArchiveEntry("lib/y", TarArchiveEntry.LF_SYMLINK);
+            nested.setLinkName("x");
+            tar.putArchiveEntry(nested);
+            tar.closeArchiveEntry();
+        }
+
+        for (ByteArrayOutputStream malicious : new ByteArrayOutputStream[] {archive, links}) {
+            FilePath target = new FilePath(new File(tmp, "target"));
+            assertThrows(
+                    IOException.class,
+                    () -> ParallelExtractor.untar(target, new ByteArrayInputStream(malicious.toByteArray())));
+            assertArrayEquals(new String[0], outside.list());
+            target.deleteRecursive();
+        }
+    }
+
+    private InputStream fixture(String name) {
+        return Objects.requireNonNull(getClass().getResourceAsStream("/__files/" + name));
+    }
+
+    private static void assertSameTree(FilePath expected, FilePath actual) throws IOException {
+        Map<Path, Path> expectedFiles = files(expected);
+        Map<Path, Path> actualFiles = files(actual);
+        assertEquals(expectedFiles.keySet(), actualFiles.keySet());
+        for (Map.Entry<Path, Path> file : expectedFiles.entrySet()) {
+            Path other = actualFiles.get(file.getKey());
+            assertEquals(Files.isDirectory(file.getValue()), Files.isDirectory(other), file.getKey() + " type");
+            if (Files.isRegularFile(file.getValue())) {
+                assertArrayEquals(Files.readAllBytes(file.getValue()), Files.readAllBytes(other), file.getKey() + "");
+                assertEquals(Files.isExecutable(file.getValue()), Files.isExecutable(other), file.getKey() + " mode");
+                assertEquals(
+                        Files.getLastModifiedTime(file.getValue()),
+                        Files.getLastModifiedTime(other),
+                        file.getKey() + " modification time");
+            }
+        }
+    }
+
+    private static Map<Path, Path> files(FilePath root) throws IOException {
+        Path dir = new File(root.getRemote()).toPath();
+        Map<Path, Path> files = new TreeMap<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(file -> files.put(dir.relativize(file), file));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,113 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PeerDistributionTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void agentsServeTheArchivesTheyKept() throws Exception {
+        byte[] content = new byte[1000];
+        new Random(42).nextBytes(content);
+        Path file = tmp.toPath().resolve("OpenJDK21U-jdk_x64_linux_hotspot_21.0.7_6.tar.gz");
+        Files.write(file, content);
+        String path = "jdk-21.0.7+6/LINUX/AMD64/" + file.getFileName();
+        URI server = PeerDistribution.serve(path, file, 0, "secret");
+        long expires = System.currentTimeMillis() + 60_000;
+        URI uri = PeerDistribution.uri(server, path, expires, "secret");
+        HttpClient client = HttpClient.newHttpClient();
+
+        HttpResponse<byte[]> full =
+                client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, full.statusCode());
+        assertArrayEquals(content, full.body());
+
+        HttpResponse<byte[]> rest = client.send(
+                HttpRequest.newBuilder(uri).header("Range", "bytes=900-").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, rest.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), rest.body());
+
+        // URLs signed for other files, with another key or expired are refused
+        String other = uri.toString().replace(file.getFileName().toString(), "other.tar.gz");
+        assertEquals(403, status(client, URI.create(other)));
+        assertEquals(403, status(client, PeerDistribution.uri(server, path, expires, "other")));
+        assertEquals(403, status(client, PeerDistribution.uri(server, path, expires - 120_000, "secret")));
+        assertEquals(404, status(client, server.resolve("/" + path)));
+    }
+
+    @Test
+    void leastRecentlyServedCopiesAreEvicted() throws Exception {
+        Path root = tmp.toPath();
+        Path oldest = copy(root, "jdk-21.0.5+11/LINUX/AMD64/a.tar.gz", 3_000);
+        Path older = copy(root, "jdk-21.0.6+7/LINUX/AMD64/b.tar.gz", 2_000);
+        Path shared = copy(root, "jdk-21.0.7+6/LINUX/AMD64/c.tar.gz", 1_000);
+        Files.writeString(root.resolve("jdk-21.0.7+6/LINUX/AMD64/.archive123.tmp"), "x".repeat(500));
+
+        assertEquals(List.of(), PeerDistribution.evict(root, shared, 0));
+        assertEquals(List.of(), PeerDistribution.evict(root, shared, 300));
+        assertEquals(List.of("jdk-21.0.5+11/LINUX/AMD64/a.tar.gz"), PeerDistribution.evict(root, shared, 200));
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(older));
+        // the copy that was just shared is kept even if it exceeds the budget on its own
+        assertEquals(List.of("jdk-21.0.6+7/LINUX/AMD64/b.tar.gz"), PeerDistribution.evict(root, shared, 50));
+        assertTrue(Files.exists(shared));
+    }
+
+    private static Path copy(Path root, String path, long age) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[100]);
+        assertTrue(file.toFile().setLastModified(System.currentTimeMillis() - age * 1000));
+        return file;
+    }
+
+    private static int status(HttpClient client, URI uri) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+}
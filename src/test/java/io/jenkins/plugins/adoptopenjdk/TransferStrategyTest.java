@@ -0,0 +1,61 @@
+package io.jenkins.plugins.adoptopenjdk;
+
+/*
+ * #%L
+ * Eclipse Temurin installer Plugin
+ * %%
+ * Copyright (C) 2016 - 2019 Mads Mohr Christensen
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TransferStrategyTest {
+
+    @AfterEach
+    void reset() {
+        TransferStrategy.STRATEGIES = "http,channel";
+    }
+
+    @Test
+    void channelComesLast() {
+        TransferStrategy.STRATEGIES = "upstream, HTTP";
+        assertEquals(
+                List.of(TransferStrategy.UPSTREAM, TransferStrategy.CACHE_HTTP, TransferStrategy.CHANNEL),
+                TransferStrategy.configured());
+
+        TransferStrategy.STRATEGIES = "http,channel,upstream";
+        assertEquals(List.of(TransferStrategy.CACHE_HTTP, TransferStrategy.CHANNEL), TransferStrategy.configured());
+    }
+
+    @Test
+    void unknownStrategiesAreIgnored() {
+        TransferStrategy.STRATEGIES = "torrent upstream upstream";
+        assertEquals(List.of(TransferStrategy.UPSTREAM, TransferStrategy.CHANNEL), TransferStrategy.configured());
+
+        TransferStrategy.STRATEGIES = "";
+        assertEquals(List.of(TransferStrategy.CHANNEL), TransferStrategy.configured());
+    }
+}